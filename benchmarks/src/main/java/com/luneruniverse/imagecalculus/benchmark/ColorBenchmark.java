@@ -0,0 +1,82 @@
+package com.luneruniverse.imagecalculus.benchmark;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.luneruniverse.imagecalculus.Color;
+
+// Every call starts from new Color objects, the way the per-pixel code creates them
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "--add-modules", "jdk.incubator.vector" })
+public class ColorBenchmark {
+	
+	private static final int COLORS = 4096;
+	
+	@State(Scope.Thread)
+	public static class Operation {
+		@Param({ "RGB", "HSV" })
+		public Color.Type type;
+	}
+	
+	private int[] colors;
+	private Map<Color.Direction, Color>[] neighbors;
+	private int i;
+	
+	@Setup
+	@SuppressWarnings("unchecked")
+	public void setup() {
+		Random random = new Random(1);
+		colors = new int[COLORS];
+		for (int i = 0; i < COLORS; i++)
+			colors[i] = random.nextInt() | 0xFF000000;
+		neighbors = new Map[COLORS];
+		for (int i = 0; i < COLORS; i++) {
+			neighbors[i] = new EnumMap<>(Color.Direction.class);
+			for (Color.Direction direction : Color.Direction.values())
+				neighbors[i].put(direction, Color.fromRGB(colors[(i + direction.ordinal() + 1) % COLORS]));
+		}
+	}
+	
+	private int next() {
+		return colors[i++ & (COLORS - 1)];
+	}
+	
+	@Benchmark
+	public Color slope(Operation operation) {
+		return Color.fromRGB(next()).slope(Color.fromRGB(next()), operation.type);
+	}
+	
+	@Benchmark
+	public Color add(Operation operation) {
+		return Color.fromRGB(next()).add(Color.fromRGB(next()), operation.type);
+	}
+	
+	@Benchmark
+	public float[] getHSV() {
+		return Color.fromRGB(next()).getHSV();
+	}
+	
+	@Benchmark
+	public Color.ColorVector calculateVector() {
+		return Color.calculateVector(neighbors[i++ & (COLORS - 1)]);
+	}
+	
+}
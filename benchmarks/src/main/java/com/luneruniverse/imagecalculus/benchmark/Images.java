@@ -0,0 +1,26 @@
+package com.luneruniverse.imagecalculus.benchmark;
+
+import java.util.Random;
+
+import com.luneruniverse.imagecalculus.PixelRaster;
+
+public class Images {
+	
+	// A square image of smooth gradients with some noise, so neither the integral nor the slopes are trivial
+	public static PixelRaster create(int megapixels, long seed) {
+		int size = (int) Math.round(Math.sqrt(megapixels * 1_000_000.0));
+		PixelRaster img = new PixelRaster(size, size);
+		int[] pixels = img.pixels();
+		Random random = new Random(seed);
+		for (int y = 0; y < size; y++) {
+			for (int x = 0; x < size; x++) {
+				int red = (x * 255 / size + random.nextInt(16)) & 0xFF;
+				int green = (y * 255 / size + random.nextInt(16)) & 0xFF;
+				int blue = ((x + y) * 127 / size + random.nextInt(16)) & 0xFF;
+				pixels[y * size + x] = 0xFF000000 | red << 16 | green << 8 | blue;
+			}
+		}
+		return img;
+	}
+	
+}
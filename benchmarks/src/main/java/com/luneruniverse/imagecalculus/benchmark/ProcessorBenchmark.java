@@ -0,0 +1,75 @@
+package com.luneruniverse.imagecalculus.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.luneruniverse.imagecalculus.Color;
+import com.luneruniverse.imagecalculus.ImageSettings;
+import com.luneruniverse.imagecalculus.PixelRaster;
+import com.luneruniverse.imagecalculus.Processor;
+
+// A slope field is 25 times the size of its input, so the 50 MP runs need the large heap
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = { "--add-modules", "jdk.incubator.vector", "-Xmx8g" })
+public class ProcessorBenchmark {
+	
+	@Param({ "1", "10", "50" })
+	public int megapixels;
+	
+	@Param({ "RGB", "HSV" })
+	public Color.Type type;
+	
+	private PixelRaster img;
+	private PixelRaster other;
+	private ImageSettings settings;
+	private ImageSettings slopeFieldSettings;
+	
+	@Setup
+	public void setup() {
+		img = Images.create(megapixels, 1);
+		other = Images.create(megapixels, 2);
+		settings = new ImageSettings(type, false, false, false, false, false);
+		slopeFieldSettings = new ImageSettings(type, false, false, true, true, false);
+	}
+	
+	@Benchmark
+	public PixelRaster derivative() {
+		return Processor.derivative(img, settings);
+	}
+	
+	@Benchmark
+	public PixelRaster slopeField() {
+		return Processor.slopeField(img, slopeFieldSettings);
+	}
+	
+	@Benchmark
+	public PixelRaster derivative2() {
+		return Processor.derivative2(img, settings);
+	}
+	
+	@Benchmark
+	public PixelRaster integrate() {
+		return Processor.integrate(img, settings);
+	}
+	
+	@Benchmark
+	public PixelRaster addImages() {
+		return Processor.addImages(img, other, settings);
+	}
+	
+}
@@ -0,0 +1,69 @@
+package com.luneruniverse.imagecalculus;
+
+public class ChannelBuffer {
+	
+	public static final int CHANNELS = 3;
+	
+	public static ChannelBuffer decode(int[] pixels, int width, int height, Color.Type type, ExecutionOptions options) {
+		ChannelBuffer buffer = new ChannelBuffer(width, height);
+		options.forEachBand(height, (fromY, toY) -> buffer.decode(pixels, type, fromY, toY));
+		return buffer;
+	}
+	
+	
+	private final int width;
+	private final int height;
+	private final int[][] channels;
+	
+	public ChannelBuffer(int width, int height) {
+		this.width = width;
+		this.height = height;
+		this.channels = new int[CHANNELS][width * height];
+	}
+	
+	public int getWidth() {
+		return width;
+	}
+	public int getHeight() {
+		return height;
+	}
+	public int[] getChannel(int channel) {
+		return channels[channel];
+	}
+	
+	public void decode(int[] pixels, Color.Type type, int fromY, int toY) {
+		decode(pixels, 0, type, fromY, toY);
+	}
+	// The pixels start the given number of pixels before the rows they are decoded into
+	public void decode(int[] pixels, int pixelsOffset, Color.Type type, int fromY, int toY) {
+		if (type == Color.Type.HSV) {
+			HSVConverter.toHSV(pixels, pixelsOffset, this, fromY * width, toY * width);
+			return;
+		}
+		int[] red = channels[0];
+		int[] green = channels[1];
+		int[] blue = channels[2];
+		for (int i = fromY * width; i < toY * width; i++) {
+			int rgb = pixels[pixelsOffset + i];
+			red[i] = Color.red(rgb);
+			green[i] = Color.green(rgb);
+			blue[i] = Color.blue(rgb);
+		}
+	}
+	
+	public void encode(int[] pixels, Color.Type type, int fromY, int toY) {
+		encode(pixels, 0, type, fromY, toY);
+	}
+	public void encode(int[] pixels, int pixelsOffset, Color.Type type, int fromY, int toY) {
+		if (type == Color.Type.HSV) {
+			HSVConverter.toRGB(this, pixels, pixelsOffset, fromY * width, toY * width);
+			return;
+		}
+		int[] red = channels[0];
+		int[] green = channels[1];
+		int[] blue = channels[2];
+		for (int i = fromY * width; i < toY * width; i++)
+			pixels[pixelsOffset + i] = 0xFF000000 | Color.packRGB(red[i], green[i], blue[i]);
+	}
+	
+}
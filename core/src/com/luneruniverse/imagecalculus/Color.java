@@ -21,20 +21,26 @@ public class Color {
 		return new Color(rgb);
 	}
 	public static Color fromRGB(int red, int green, int blue) {
+		return new Color(packRGB(red, green, blue));
+	}
+	public static int packRGB(int red, int green, int blue) {
 		red = Math.max(0, Math.min(255, red));
 		green = Math.max(0, Math.min(255, green));
 		blue = Math.max(0, Math.min(255, blue));
-		return new Color((((red << 8) + green) << 8) + blue);
+		return (((red << 8) + green) << 8) + blue;
 	}
 	
 	public static Color fromHSV(float[] hsv) {
 		return fromHSV(hsv[0], hsv[1], hsv[2]);
 	}
 	public static Color fromHSV(float hue, float saturation, float value) {
+		return new Color(packHSV(hue, saturation, value));
+	}
+	public static int packHSV(float hue, float saturation, float value) {
 		hue = Math.max(0, Math.min(1, hue));
 		saturation = Math.max(0, Math.min(1, saturation));
 		value = Math.max(0, Math.min(1, value));
-		return new Color(java.awt.Color.HSBtoRGB(hue, saturation, value));
+		return HSVConverter.toRGB(hue, saturation, value);
 	}
 	
 	public static Color fromAverageRGB(Iterable<Color> colors) {
@@ -94,17 +100,30 @@ public class Color {
 		return 0xFF000000 | rgb;
 	}
 	public int getRed() {
-		return (rgb >> 16) & 0xFF;
+		return red(rgb);
 	}
 	public int getGreen() {
-		return (rgb >> 8) & 0xFF;
+		return green(rgb);
 	}
 	public int getBlue() {
+		return blue(rgb);
+	}
+	
+	public static int red(int rgb) {
+		return (rgb >> 16) & 0xFF;
+	}
+	public static int green(int rgb) {
+		return (rgb >> 8) & 0xFF;
+	}
+	public static int blue(int rgb) {
 		return (rgb >> 0) & 0xFF;
 	}
 	
 	public float[] getHSV() {
-		return java.awt.Color.RGBtoHSB(getRed(), getGreen(), getBlue(), null);
+		return toHSV(rgb, null);
+	}
+	public static float[] toHSV(int rgb, float[] hsv) {
+		return HSVConverter.toHSV(rgb, hsv);
 	}
 	public float getHue() {
 		return getHSV()[0];
@@ -122,10 +141,13 @@ public class Color {
 	
 	
 	public Color slopeRGB(Color other) {
-		return Color.fromRGB(
-				(getRed() - other.getRed()) / 2 + 127,
-				(getGreen() - other.getGreen()) / 2 + 127,
-				(getBlue() - other.getBlue()) / 2 + 127);
+		return new Color(slopeRGB(rgb, other.rgb));
+	}
+	public static int slopeRGB(int rgb, int other) {
+		return packRGB(
+				(red(rgb) - red(other)) / 2 + 127,
+				(green(rgb) - green(other)) / 2 + 127,
+				(blue(rgb) - blue(other)) / 2 + 127);
 	}
 	public Color slopeHSV(Color other) {
 		float[] hsv = getHSV();
@@ -143,10 +165,13 @@ public class Color {
 	}
 	
 	public Color addRGB(Color other) {
-		return Color.fromRGB(
-				getRed() + (other.getRed() - 127) * 2,
-				getGreen() + (other.getGreen() - 127) * 2,
-				getBlue() + (other.getBlue() - 127) * 2);
+		return new Color(addRGB(rgb, other.rgb));
+	}
+	public static int addRGB(int rgb, int other) {
+		return packRGB(
+				red(rgb) + (red(other) - 127) * 2,
+				green(rgb) + (green(other) - 127) * 2,
+				blue(rgb) + (blue(other) - 127) * 2);
 	}
 	public Color addHSV(Color other) {
 		return Color.fromHSV(
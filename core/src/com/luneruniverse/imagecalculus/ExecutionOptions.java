@@ -0,0 +1,103 @@
+package com.luneruniverse.imagecalculus;
+
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+public record ExecutionOptions(int parallelism, boolean vectorize, ProcessingMonitor monitor, long offHeapPixels) {
+	
+	public static final ExecutionOptions SERIAL = new ExecutionOptions(1);
+	public static final ExecutionOptions DEFAULT = new ExecutionOptions(Runtime.getRuntime().availableProcessors());
+	
+	private static final boolean VECTOR_API_AVAILABLE = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+	private static final int BANDS_PER_THREAD = 4;
+	private static final Map<Integer, ForkJoinPool> pools = new ConcurrentHashMap<>();
+	
+	public interface Band {
+		public void process(int from, int to);
+	}
+	
+	public ExecutionOptions {
+		if (parallelism < 1)
+			throw new IllegalArgumentException("The parallelism must be at least 1");
+		if (offHeapPixels < 1)
+			throw new IllegalArgumentException("The off-heap threshold must be at least 1 pixel");
+	}
+	public ExecutionOptions(int parallelism, boolean vectorize) {
+		this(parallelism, vectorize, ProcessingMonitor.NONE, Long.MAX_VALUE);
+	}
+	public ExecutionOptions(int parallelism) {
+		this(parallelism, true);
+	}
+	
+	public ExecutionOptions withMonitor(ProcessingMonitor monitor) {
+		return new ExecutionOptions(parallelism, vectorize, monitor, offHeapPixels);
+	}
+	// Images with at least this many pixels keep their intermediate results in an OffHeapRaster
+	public ExecutionOptions withOffHeapPixels(long offHeapPixels) {
+		return new ExecutionOptions(parallelism, vectorize, monitor, offHeapPixels);
+	}
+	
+	public boolean isSerial() {
+		return parallelism == 1;
+	}
+	public boolean isVectorized() {
+		return vectorize && VECTOR_API_AVAILABLE;
+	}
+	public boolean isOffHeap(int width, int height) {
+		return (long) width * height >= offHeapPixels;
+	}
+	
+	public void forEachBand(int rows, Band band) {
+		monitor.onPassStart(rows);
+		Band monitoredBand = (from, to) -> {
+			if (monitor.isCancelled())
+				throw new CancellationException();
+			band.process(from, to);
+			monitor.onRowsComplete(to - from);
+		};
+		int bands = Math.min(rows, parallelism * BANDS_PER_THREAD);
+		if (isSerial() || bands <= 1) {
+			for (int i = 0; i < bands; i++)
+				monitoredBand.process(getRow(rows, bands, i), getRow(rows, bands, i + 1));
+			return;
+		}
+		pools.computeIfAbsent(parallelism, ForkJoinPool::new).invoke(new BandTask(ProcessingMetrics.track(monitoredBand), rows, bands, 0, bands));
+	}
+	public void forEachBand(int fromRow, int toRow, Band band) {
+		forEachBand(toRow - fromRow, (from, to) -> band.process(fromRow + from, fromRow + to));
+	}
+	private static int getRow(int rows, int bands, int bandIndex) {
+		return (int) ((long) rows * bandIndex / bands);
+	}
+	
+	@SuppressWarnings("serial")
+	private static class BandTask extends RecursiveAction {
+		private final Band band;
+		private final int rows;
+		private final int bands;
+		private final int fromBand;
+		private final int toBand;
+		
+		public BandTask(Band band, int rows, int bands, int fromBand, int toBand) {
+			this.band = band;
+			this.rows = rows;
+			this.bands = bands;
+			this.fromBand = fromBand;
+			this.toBand = toBand;
+		}
+		
+		@Override
+		protected void compute() {
+			if (toBand - fromBand == 1) {
+				band.process(getRow(rows, bands, fromBand), getRow(rows, bands, toBand));
+				return;
+			}
+			int middle = (fromBand + toBand) >>> 1;
+			invokeAll(new BandTask(band, rows, bands, fromBand, middle), new BandTask(band, rows, bands, middle, toBand));
+		}
+	}
+	
+}
@@ -0,0 +1,131 @@
+package com.luneruniverse.imagecalculus;
+
+// Same arithmetic as java.awt.Color.RGBtoHSB and HSBtoRGB, so results match them bit for bit,
+// but without allocating and with bulk variants that convert every pixel exactly once
+public class HSVConverter {
+	
+	public static float[] toHSV(int rgb, float[] hsv) {
+		if (hsv == null)
+			hsv = new float[3];
+		int red = Color.red(rgb);
+		int green = Color.green(rgb);
+		int blue = Color.blue(rgb);
+		int max = Math.max(red, Math.max(green, blue));
+		int min = Math.min(red, Math.min(green, blue));
+		
+		float hue;
+		float saturation;
+		float value = ((float) max) / 255.0F;
+		if (max != 0)
+			saturation = ((float) (max - min)) / ((float) max);
+		else
+			saturation = 0;
+		if (saturation == 0)
+			hue = 0;
+		else {
+			float redDistance = ((float) (max - red)) / ((float) (max - min));
+			float greenDistance = ((float) (max - green)) / ((float) (max - min));
+			float blueDistance = ((float) (max - blue)) / ((float) (max - min));
+			if (red == max)
+				hue = blueDistance - greenDistance;
+			else if (green == max)
+				hue = 2.0F + redDistance - blueDistance;
+			else
+				hue = 4.0F + greenDistance - redDistance;
+			hue = hue / 6.0F;
+			if (hue < 0)
+				hue = hue + 1.0F;
+		}
+		hsv[0] = hue;
+		hsv[1] = saturation;
+		hsv[2] = value;
+		return hsv;
+	}
+	
+	public static int toRGB(float hue, float saturation, float value) {
+		int red = 0;
+		int green = 0;
+		int blue = 0;
+		if (saturation == 0)
+			red = green = blue = (int) (value * 255.0F + 0.5F);
+		else {
+			float sector = (hue - (float) Math.floor(hue)) * 6.0F;
+			float fraction = sector - (float) Math.floor(sector);
+			float p = value * (1.0F - saturation);
+			float q = value * (1.0F - saturation * fraction);
+			float t = value * (1.0F - (saturation * (1.0F - fraction)));
+			switch ((int) sector) {
+				case 0 -> {
+					red = (int) (value * 255.0F + 0.5F);
+					green = (int) (t * 255.0F + 0.5F);
+					blue = (int) (p * 255.0F + 0.5F);
+				}
+				case 1 -> {
+					red = (int) (q * 255.0F + 0.5F);
+					green = (int) (value * 255.0F + 0.5F);
+					blue = (int) (p * 255.0F + 0.5F);
+				}
+				case 2 -> {
+					red = (int) (p * 255.0F + 0.5F);
+					green = (int) (value * 255.0F + 0.5F);
+					blue = (int) (t * 255.0F + 0.5F);
+				}
+				case 3 -> {
+					red = (int) (p * 255.0F + 0.5F);
+					green = (int) (q * 255.0F + 0.5F);
+					blue = (int) (value * 255.0F + 0.5F);
+				}
+				case 4 -> {
+					red = (int) (t * 255.0F + 0.5F);
+					green = (int) (p * 255.0F + 0.5F);
+					blue = (int) (value * 255.0F + 0.5F);
+				}
+				case 5 -> {
+					red = (int) (value * 255.0F + 0.5F);
+					green = (int) (p * 255.0F + 0.5F);
+					blue = (int) (q * 255.0F + 0.5F);
+				}
+			}
+		}
+		return 0xFF000000 | (red << 16) | (green << 8) | (blue << 0);
+	}
+	
+	public static float[][] toHSV(int[] pixels, ExecutionOptions options) {
+		float[][] hsv = new float[3][pixels.length];
+		options.forEachBand(pixels.length, (from, to) -> toHSV(pixels, hsv, from, to));
+		return hsv;
+	}
+	public static void toHSV(int[] pixels, float[][] hsv, int from, int to) {
+		float[] hue = hsv[0];
+		float[] saturation = hsv[1];
+		float[] value = hsv[2];
+		float[] scratch = new float[3];
+		for (int i = from; i < to; i++) {
+			toHSV(pixels[i], scratch);
+			hue[i] = scratch[0];
+			saturation[i] = scratch[1];
+			value[i] = scratch[2];
+		}
+	}
+	
+	public static void toHSV(int[] pixels, int pixelsOffset, ChannelBuffer buffer, int from, int to) {
+		int[] hue = buffer.getChannel(0);
+		int[] saturation = buffer.getChannel(1);
+		int[] value = buffer.getChannel(2);
+		float[] scratch = new float[3];
+		for (int i = from; i < to; i++) {
+			toHSV(pixels[pixelsOffset + i], scratch);
+			hue[i] = (int) (scratch[0] * 255);
+			saturation[i] = (int) (scratch[1] * 255);
+			value[i] = (int) (scratch[2] * 255);
+		}
+	}
+	public static void toRGB(ChannelBuffer buffer, int[] pixels, int pixelsOffset, int from, int to) {
+		int[] hue = buffer.getChannel(0);
+		int[] saturation = buffer.getChannel(1);
+		int[] value = buffer.getChannel(2);
+		for (int i = from; i < to; i++)
+			pixels[pixelsOffset + i] = Color.packHSV(hue[i] / 255.0F, saturation[i] / 255.0F, value[i] / 255.0F);
+	}
+	
+}
@@ -0,0 +1,22 @@
+package com.luneruniverse.imagecalculus;
+
+public record ImageSettings(
+		Color.Type type,
+		boolean integral,
+		boolean derivative2,
+		boolean slopeField,
+		boolean slopeFieldMagnitude,
+		boolean rescale,
+		int slopeFieldStride,
+		int slopeFieldCellSize) {
+	
+	public ImageSettings {
+		if (slopeFieldStride < 1)
+			throw new IllegalArgumentException("The slope field stride must be at least 1");
+		SlopeField.getStamps(slopeFieldCellSize);
+	}
+	public ImageSettings(Color.Type type, boolean integral, boolean derivative2, boolean slopeField, boolean slopeFieldMagnitude, boolean rescale) {
+		this(type, integral, derivative2, slopeField, slopeFieldMagnitude, rescale, SlopeField.DEFAULT_STRIDE, SlopeField.DEFAULT_CELL_SIZE);
+	}
+	
+}
@@ -0,0 +1,125 @@
+package com.luneruniverse.imagecalculus;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+// A SignedRaster whose channels are planes of an OffHeapRaster, such as the ones in a RasterFile, for rasters that
+// don't fit in the heap. Processor reads and writes it a block of rows at a time. The type is the one its values
+// were decoded from, which is how it's encoded back into pixels.
+public class MappedRaster implements Closeable {
+	
+	private static final int BLOCK_PIXELS = 1 << 16;
+	
+	// The file is deleted once the raster is closed
+	public static MappedRaster create(int width, int height, boolean signed, Color.Type type) throws IOException {
+		return new MappedRaster(new OffHeapRaster(width, height), signed, type);
+	}
+	
+	// Enough rows to read and write at once that the planes aren't touched a few values at a time
+	static int getBlockRows(int width) {
+		return Math.max(1, BLOCK_PIXELS / width);
+	}
+	
+	
+	private final OffHeapRaster raster;
+	private final boolean signed;
+	private final Color.Type type;
+	private final OffHeapRaster.FloatPlane[] channels;
+	
+	MappedRaster(OffHeapRaster raster, boolean signed, Color.Type type) throws IOException {
+		this.raster = raster;
+		this.signed = signed;
+		this.type = type;
+		this.channels = new OffHeapRaster.FloatPlane[ChannelBuffer.CHANNELS];
+		try {
+			for (int channel = 0; channel < channels.length; channel++)
+				channels[channel] = raster.createFloatPlane();
+		} catch (IOException | RuntimeException e) {
+			raster.close();
+			throw e;
+		}
+	}
+	
+	public int getWidth() {
+		return raster.getWidth();
+	}
+	public int getHeight() {
+		return raster.getHeight();
+	}
+	public boolean isSigned() {
+		return signed;
+	}
+	public Color.Type getType() {
+		return type;
+	}
+	public long getPixelCount() {
+		return (long) getWidth() * getHeight();
+	}
+	
+	// Rows fromY to toY of the channel, from the offset of the values on
+	public void readRows(int channel, int fromY, int toY, float[] values, int offset) {
+		int width = getWidth();
+		for (int y = fromY; y < toY; y++)
+			channels[channel].readRow(y, 0, width, values, offset + (y - fromY) * width);
+	}
+	public void writeRows(int channel, int fromY, int toY, float[] values, int offset) {
+		int width = getWidth();
+		for (int y = fromY; y < toY; y++)
+			channels[channel].writeRow(y, 0, width, values, offset + (y - fromY) * width);
+	}
+	
+	public PixelRaster encode(ExecutionOptions options) {
+		int width = getWidth();
+		int blockRows = getBlockRows(width);
+		PixelRaster output = new PixelRaster(width, getHeight());
+		options.forEachBand(getHeight(), (fromY, toY) -> {
+			float[][] values = new float[channels.length][Math.min(toY - fromY, blockRows) * width];
+			for (int blockY = fromY; blockY < toY; blockY += blockRows) {
+				int blockToY = Math.min(toY, blockY + blockRows);
+				for (int channel = 0; channel < channels.length; channel++)
+					readRows(channel, blockY, blockToY, values[channel], 0);
+				SignedRaster.encode(values, signed, type, output.pixels(), blockY * width, 0, (blockToY - blockY) * width);
+			}
+		});
+		return output;
+	}
+	
+	// The output has to be the same size
+	public void copyTo(MappedRaster output, ExecutionOptions options) {
+		if (output.getWidth() != getWidth() || output.getHeight() != getHeight())
+			throw new IllegalArgumentException("Can't copy a " + getWidth() + "x" + getHeight() + " raster into a "
+					+ output.getWidth() + "x" + output.getHeight() + " one");
+		int width = getWidth();
+		int blockRows = getBlockRows(width);
+		options.forEachBand(getHeight(), (fromY, toY) -> {
+			float[] values = new float[Math.min(toY - fromY, blockRows) * width];
+			for (int blockY = fromY; blockY < toY; blockY += blockRows) {
+				int blockToY = Math.min(toY, blockY + blockRows);
+				for (int channel = 0; channel < channels.length; channel++) {
+					readRows(channel, blockY, blockToY, values, 0);
+					output.writeRows(channel, blockY, blockToY, values, 0);
+				}
+			}
+		});
+	}
+	
+	// The same as the ones of SignedRaster
+	float getEncodedScale() {
+		return (signed ? 0.5F : 1);
+	}
+	float getEncodedOffset() {
+		return (signed ? 127 : 0);
+	}
+	float getSignedScale() {
+		return signed ? 1 : 2;
+	}
+	float getSignedOffset() {
+		return signed ? 0 : -254;
+	}
+	
+	@Override
+	public void close() throws IOException {
+		raster.close();
+	}
+	
+}
@@ -0,0 +1,236 @@
+package com.luneruniverse.imagecalculus;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// Planes of a raster mapped from a scratch file (or a RasterFile), so they live outside of the heap and the OS pages them
+// in and out as needed. A mapping can't be larger than 2 GB, so every plane is split into chunks.
+public class OffHeapRaster implements Closeable {
+	
+	private static final int CHUNK_BYTES_SHIFT = 30;
+	
+	
+	private final int width;
+	private final int height;
+	private final FileChannel channel;
+	private final FileChannel.MapMode mode;
+	private final ByteOrder order;
+	private long size;
+	
+	public OffHeapRaster(int width, int height) throws IOException {
+		this(width, height, Path.of(System.getProperty("java.io.tmpdir")));
+	}
+	public OffHeapRaster(int width, int height, Path directory) throws IOException {
+		this(width, height, FileChannel.open(Files.createTempFile(directory, "imagecalculus", ".raster"),
+				StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE),
+				0, FileChannel.MapMode.READ_WRITE, ByteOrder.nativeOrder());
+	}
+	// Maps the planes of a file that is kept, one after the other from the given offset, in little-endian order
+	public OffHeapRaster(int width, int height, Path file, long offset, boolean writable) throws IOException {
+		this(width, height, (writable ? FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE) : FileChannel.open(file)),
+				offset, (writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY), ByteOrder.LITTLE_ENDIAN);
+	}
+	private OffHeapRaster(int width, int height, FileChannel channel, long offset, FileChannel.MapMode mode, ByteOrder order) {
+		this.width = width;
+		this.height = height;
+		this.channel = channel;
+		this.mode = mode;
+		this.order = order;
+		this.size = offset;
+	}
+	
+	public int getWidth() {
+		return width;
+	}
+	public int getHeight() {
+		return height;
+	}
+	
+	public IntPlane createIntPlane() throws IOException {
+		return new IntPlane(map(Integer.BYTES));
+	}
+	public LongPlane createLongPlane() throws IOException {
+		return new LongPlane(map(Long.BYTES));
+	}
+	public FloatPlane createFloatPlane() throws IOException {
+		return new FloatPlane(map(Float.BYTES));
+	}
+	public DoublePlane createDoublePlane() throws IOException {
+		return new DoublePlane(map(Double.BYTES));
+	}
+	
+	private synchronized ByteBuffer[] map(int elementBytes) throws IOException {
+		long bytes = (long) width * height * elementBytes;
+		long chunkBytes = 1L << CHUNK_BYTES_SHIFT;
+		ByteBuffer[] chunks = new ByteBuffer[(int) ((bytes + chunkBytes - 1) >>> CHUNK_BYTES_SHIFT)];
+		for (int i = 0; i < chunks.length; i++) {
+			long offset = (long) i << CHUNK_BYTES_SHIFT;
+			chunks[i] = channel.map(mode, size + offset, Math.min(chunkBytes, bytes - offset)).order(order);
+		}
+		size += bytes;
+		return chunks;
+	}
+	
+	// A scratch file is deleted now, and the mappings are released once the planes are unreachable
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+	
+	
+	private abstract class Plane {
+		protected final int chunkShift;
+		protected final int chunkMask;
+		
+		protected Plane(int elementBytes) {
+			this.chunkShift = CHUNK_BYTES_SHIFT - Integer.numberOfTrailingZeros(elementBytes);
+			this.chunkMask = (1 << chunkShift) - 1;
+		}
+		
+		protected long getIndex(int x, int y) {
+			return (long) y * width + x;
+		}
+		// Bulk copies are split wherever they cross into the next chunk
+		protected void copy(long index, int offset, int length, Copy copy) {
+			while (length > 0) {
+				int chunk = (int) (index >>> chunkShift);
+				int chunkIndex = (int) (index & chunkMask);
+				int chunkLength = Math.min(length, chunkMask + 1 - chunkIndex);
+				copy.copy(chunk, chunkIndex, offset, chunkLength);
+				index += chunkLength;
+				offset += chunkLength;
+				length -= chunkLength;
+			}
+		}
+	}
+	private interface Copy {
+		public void copy(int chunk, int chunkIndex, int offset, int length);
+	}
+	
+	public class IntPlane extends Plane {
+		private final IntBuffer[] chunks;
+		
+		private IntPlane(ByteBuffer[] chunks) {
+			super(Integer.BYTES);
+			this.chunks = new IntBuffer[chunks.length];
+			for (int i = 0; i < chunks.length; i++)
+				this.chunks[i] = chunks[i].asIntBuffer();
+		}
+		
+		public int get(int x, int y) {
+			long i = getIndex(x, y);
+			return chunks[(int) (i >>> chunkShift)].get((int) (i & chunkMask));
+		}
+		public void set(int x, int y, int value) {
+			long i = getIndex(x, y);
+			chunks[(int) (i >>> chunkShift)].put((int) (i & chunkMask), value);
+		}
+		
+		public void readRow(int y, int fromX, int toX, int[] dst, int offset) {
+			copy(getIndex(fromX, y), offset, toX - fromX, (chunk, chunkIndex, dstOffset, length) ->
+					chunks[chunk].get(chunkIndex, dst, dstOffset, length));
+		}
+		public void writeRow(int y, int fromX, int toX, int[] src, int offset) {
+			copy(getIndex(fromX, y), offset, toX - fromX, (chunk, chunkIndex, srcOffset, length) ->
+					chunks[chunk].put(chunkIndex, src, srcOffset, length));
+		}
+	}
+	
+	public class LongPlane extends Plane {
+		private final LongBuffer[] chunks;
+		
+		private LongPlane(ByteBuffer[] chunks) {
+			super(Long.BYTES);
+			this.chunks = new LongBuffer[chunks.length];
+			for (int i = 0; i < chunks.length; i++)
+				this.chunks[i] = chunks[i].asLongBuffer();
+		}
+		
+		public long get(int x, int y) {
+			long i = getIndex(x, y);
+			return chunks[(int) (i >>> chunkShift)].get((int) (i & chunkMask));
+		}
+		public void set(int x, int y, long value) {
+			long i = getIndex(x, y);
+			chunks[(int) (i >>> chunkShift)].put((int) (i & chunkMask), value);
+		}
+		
+		public void readRow(int y, int fromX, int toX, long[] dst, int offset) {
+			copy(getIndex(fromX, y), offset, toX - fromX, (chunk, chunkIndex, dstOffset, length) ->
+					chunks[chunk].get(chunkIndex, dst, dstOffset, length));
+		}
+		public void writeRow(int y, int fromX, int toX, long[] src, int offset) {
+			copy(getIndex(fromX, y), offset, toX - fromX, (chunk, chunkIndex, srcOffset, length) ->
+					chunks[chunk].put(chunkIndex, src, srcOffset, length));
+		}
+	}
+	
+	public class FloatPlane extends Plane {
+		private final FloatBuffer[] chunks;
+		
+		private FloatPlane(ByteBuffer[] chunks) {
+			super(Float.BYTES);
+			this.chunks = new FloatBuffer[chunks.length];
+			for (int i = 0; i < chunks.length; i++)
+				this.chunks[i] = chunks[i].asFloatBuffer();
+		}
+		
+		public float get(int x, int y) {
+			long i = getIndex(x, y);
+			return chunks[(int) (i >>> chunkShift)].get((int) (i & chunkMask));
+		}
+		public void set(int x, int y, float value) {
+			long i = getIndex(x, y);
+			chunks[(int) (i >>> chunkShift)].put((int) (i & chunkMask), value);
+		}
+		
+		public void readRow(int y, int fromX, int toX, float[] dst, int offset) {
+			copy(getIndex(fromX, y), offset, toX - fromX, (chunk, chunkIndex, dstOffset, length) ->
+					chunks[chunk].get(chunkIndex, dst, dstOffset, length));
+		}
+		public void writeRow(int y, int fromX, int toX, float[] src, int offset) {
+			copy(getIndex(fromX, y), offset, toX - fromX, (chunk, chunkIndex, srcOffset, length) ->
+					chunks[chunk].put(chunkIndex, src, srcOffset, length));
+		}
+	}
+	
+	public class DoublePlane extends Plane {
+		private final DoubleBuffer[] chunks;
+		
+		private DoublePlane(ByteBuffer[] chunks) {
+			super(Double.BYTES);
+			this.chunks = new DoubleBuffer[chunks.length];
+			for (int i = 0; i < chunks.length; i++)
+				this.chunks[i] = chunks[i].asDoubleBuffer();
+		}
+		
+		public double get(int x, int y) {
+			long i = getIndex(x, y);
+			return chunks[(int) (i >>> chunkShift)].get((int) (i & chunkMask));
+		}
+		public void set(int x, int y, double value) {
+			long i = getIndex(x, y);
+			chunks[(int) (i >>> chunkShift)].put((int) (i & chunkMask), value);
+		}
+		
+		public void readRow(int y, int fromX, int toX, double[] dst, int offset) {
+			copy(getIndex(fromX, y), offset, toX - fromX, (chunk, chunkIndex, dstOffset, length) ->
+					chunks[chunk].get(chunkIndex, dst, dstOffset, length));
+		}
+		public void writeRow(int y, int fromX, int toX, double[] src, int offset) {
+			copy(getIndex(fromX, y), offset, toX - fromX, (chunk, chunkIndex, srcOffset, length) ->
+					chunks[chunk].put(chunkIndex, src, srcOffset, length));
+		}
+	}
+	
+}
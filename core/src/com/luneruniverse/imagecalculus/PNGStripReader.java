@@ -0,0 +1,261 @@
+package com.luneruniverse.imagecalculus;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+// Reads a PNG a few rows at a time, in order, so the whole image never has to be in memory and every row is only
+// decoded once. Only handles the PNGs that ImageIO reads into plain ARGB: non-interlaced 8-bit truecolor, with or
+// without alpha, and palettes. The pixels match what ImageIO and BufferedImage.getRGB give for those.
+public class PNGStripReader implements Closeable {
+	
+	private static final byte[] SIGNATURE = { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n' };
+	private static final int BUFFER_SIZE = 1 << 16;
+	private static final int TRUECOLOR = 2;
+	private static final int PALETTE = 3;
+	private static final int TRUECOLOR_ALPHA = 6;
+	
+	// Returns null if the file isn't a PNG that this can read, so it has to be read some other way
+	public static PNGStripReader open(Path file) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE));
+		try {
+			PNGStripReader reader = open(in);
+			if (reader == null)
+				in.close();
+			return reader;
+		} catch (IOException | RuntimeException e) {
+			in.close();
+			throw e;
+		}
+	}
+	private static PNGStripReader open(DataInputStream in) throws IOException {
+		byte[] signature = in.readNBytes(SIGNATURE.length);
+		if (!Arrays.equals(signature, SIGNATURE) || in.readInt() != 13 || !readType(in).equals("IHDR"))
+			return null;
+		int width = in.readInt();
+		int height = in.readInt();
+		int bitDepth = in.readUnsignedByte();
+		int colorType = in.readUnsignedByte();
+		int compression = in.readUnsignedByte();
+		int filter = in.readUnsignedByte();
+		int interlace = in.readUnsignedByte();
+		in.skipNBytes(4); // CRC
+		if (width <= 0 || height <= 0 || compression != 0 || filter != 0 || interlace != 0)
+			return null;
+		int channels;
+		if (colorType == TRUECOLOR && bitDepth == 8)
+			channels = 3;
+		else if (colorType == TRUECOLOR_ALPHA && bitDepth == 8)
+			channels = 4;
+		else if (colorType == PALETTE && (bitDepth == 1 || bitDepth == 2 || bitDepth == 4 || bitDepth == 8))
+			channels = 1;
+		else
+			return null;
+		
+		int[] palette = null;
+		int paletteSize = 0;
+		while (true) {
+			int length = in.readInt();
+			String type = readType(in);
+			if (type.equals("IDAT"))
+				return new PNGStripReader(in, width, height, bitDepth, channels, palette, length);
+			switch (type) {
+				case "PLTE" -> {
+					int entries = length / 3;
+					if (length % 3 != 0 || entries == 0 || entries > 256)
+						throw new IOException("Invalid palette");
+					// Like ImageIO, the palette is rounded up to 2, 4, 16 or 256 entries with black, and the last
+					// of those is repeated for any other values that the bit depth allows
+					paletteSize = (entries > 16 ? 256 : (entries > 4 ? 16 : (entries > 2 ? 4 : 2)));
+					palette = new int[256];
+					Arrays.fill(palette, 0xFF000000);
+					for (int i = 0; i < entries; i++)
+						palette[i] = 0xFF000000 | (in.readUnsignedByte() << 16) | (in.readUnsignedByte() << 8) | in.readUnsignedByte();
+					Arrays.fill(palette, paletteSize, palette.length, palette[paletteSize - 1]);
+					length = 0;
+				}
+				case "tRNS" -> {
+					// ImageIO turns truecolor with a transparent color into alpha, and only palettes are handled here
+					if (colorType != PALETTE || palette == null)
+						return null;
+					int entries = Math.min(length, paletteSize);
+					for (int i = 0; i < entries; i++)
+						palette[i] = (in.readUnsignedByte() << 24) | (palette[i] & 0xFFFFFF);
+					length -= entries;
+				}
+				// Color profiles can make ImageIO convert the pixels
+				case "iCCP", "IEND" -> {
+					return null;
+				}
+			}
+			in.skipNBytes(length + 4L); // The rest of the data and the CRC
+		}
+	}
+	private static String readType(DataInputStream in) throws IOException {
+		return new String(in.readNBytes(4), StandardCharsets.US_ASCII);
+	}
+	
+	
+	private final DataInputStream in;
+	private final int width;
+	private final int height;
+	private final int bitDepth;
+	private final int channels;
+	private final int[] palette;
+	private final int filterBytes;
+	private final Inflater inflater;
+	private final InflaterInputStream data;
+	private byte[] row;
+	private byte[] previousRow;
+	private int rowsRead;
+	
+	private PNGStripReader(DataInputStream in, int width, int height, int bitDepth, int channels, int[] palette, int firstChunkLength) throws IOException {
+		long rowBytes = ((long) width * channels * bitDepth + 7) / 8 + 1;
+		if (rowBytes > Integer.MAX_VALUE - 8)
+			throw new IOException("The rows of a " + width + " pixel wide PNG are too long");
+		if (channels == 1 && palette == null)
+			throw new IOException("Missing palette");
+		this.in = in;
+		this.width = width;
+		this.height = height;
+		this.bitDepth = bitDepth;
+		this.channels = channels;
+		this.palette = palette;
+		this.filterBytes = Math.max(1, channels * bitDepth / 8);
+		this.inflater = new Inflater();
+		this.data = new InflaterInputStream(new ChunkInputStream(firstChunkLength), inflater, BUFFER_SIZE);
+		this.row = new byte[(int) rowBytes];
+		this.previousRow = new byte[(int) rowBytes];
+	}
+	
+	public int getWidth() {
+		return width;
+	}
+	public int getHeight() {
+		return height;
+	}
+	
+	// Writes the next rows as ARGB, starting at the given index
+	public void readRows(int[] pixels, int offset, int rows) throws IOException {
+		if (rowsRead + rows > height)
+			throw new IllegalStateException("Only " + (height - rowsRead) + " of " + height + " rows are left");
+		for (int y = 0; y < rows; y++) {
+			if (data.readNBytes(row, 0, row.length) < row.length)
+				throw new EOFException("The PNG ends after " + rowsRead + " of " + height + " rows");
+			unfilter();
+			toPixels(pixels, offset + y * width);
+			byte[] swap = previousRow;
+			previousRow = row;
+			row = swap;
+			rowsRead++;
+		}
+	}
+	
+	// The first byte of the row is the filter, so the bytes of the pixels start at 1
+	private void unfilter() throws IOException {
+		int bpp = filterBytes;
+		switch (row[0]) {
+			case 0 -> {}
+			case 1 -> {
+				for (int i = 1 + bpp; i < row.length; i++)
+					row[i] += row[i - bpp];
+			}
+			case 2 -> {
+				for (int i = 1; i < row.length; i++)
+					row[i] += previousRow[i];
+			}
+			case 3 -> {
+				for (int i = 1; i < row.length; i++) {
+					int left = (i > bpp ? row[i - bpp] & 0xFF : 0);
+					row[i] += (left + (previousRow[i] & 0xFF)) >>> 1;
+				}
+			}
+			case 4 -> {
+				for (int i = 1; i < row.length; i++) {
+					int a = (i > bpp ? row[i - bpp] & 0xFF : 0);
+					int b = previousRow[i] & 0xFF;
+					int c = (i > bpp ? previousRow[i - bpp] & 0xFF : 0);
+					int p = a + b - c;
+					int pa = Math.abs(p - a);
+					int pb = Math.abs(p - b);
+					int pc = Math.abs(p - c);
+					row[i] += (pa <= pb && pa <= pc ? a : (pb <= pc ? b : c));
+				}
+			}
+			default -> throw new IOException("Unknown PNG filter " + row[0] + " in row " + rowsRead);
+		}
+	}
+	
+	private void toPixels(int[] pixels, int offset) {
+		if (channels == 3) {
+			for (int x = 0, i = 1; x < width; x++, i += 3)
+				pixels[offset + x] = 0xFF000000 | ((row[i] & 0xFF) << 16) | ((row[i + 1] & 0xFF) << 8) | (row[i + 2] & 0xFF);
+		} else if (channels == 4) {
+			for (int x = 0, i = 1; x < width; x++, i += 4)
+				pixels[offset + x] = ((row[i + 3] & 0xFF) << 24) | ((row[i] & 0xFF) << 16) | ((row[i + 1] & 0xFF) << 8) | (row[i + 2] & 0xFF);
+		} else {
+			int pixelsPerByte = 8 / bitDepth;
+			int mask = (1 << bitDepth) - 1;
+			for (int x = 0; x < width; x++) {
+				int shift = 8 - bitDepth * (x % pixelsPerByte + 1);
+				pixels[offset + x] = palette[(row[1 + x / pixelsPerByte] >> shift) & mask];
+			}
+		}
+	}
+	
+	@Override
+	public void close() throws IOException {
+		try {
+			in.close();
+		} finally {
+			inflater.end();
+		}
+	}
+	
+	// The data of consecutive IDAT chunks, as one stream
+	private class ChunkInputStream extends InputStream {
+		private int remaining;
+		private boolean ended;
+		
+		public ChunkInputStream(int firstChunkLength) {
+			this.remaining = firstChunkLength;
+		}
+		
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			return (read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF);
+		}
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0)
+				return 0;
+			while (remaining == 0) {
+				if (ended)
+					return -1;
+				in.skipNBytes(4); // CRC
+				remaining = in.readInt();
+				if (!readType(in).equals("IDAT")) {
+					ended = true;
+					remaining = 0;
+					return -1;
+				}
+			}
+			int count = in.read(b, off, Math.min(len, remaining));
+			if (count == -1)
+				throw new EOFException("The PNG ends in the middle of its data");
+			remaining -= count;
+			return count;
+		}
+	}
+	
+}
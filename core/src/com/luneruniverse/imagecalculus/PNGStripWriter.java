@@ -0,0 +1,135 @@
+package com.luneruniverse.imagecalculus;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+// Writes an 8-bit RGB PNG a few rows at a time, so the whole image never has to be in memory
+public class PNGStripWriter implements Closeable {
+	
+	private static final byte[] SIGNATURE = { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n' };
+	private static final int CHUNK_SIZE = 1 << 16;
+	private static final byte FILTER_SUB = 1;
+	
+	private final DataOutputStream out;
+	private final int width;
+	private final int height;
+	private final Deflater deflater;
+	private final DeflaterOutputStream data;
+	private final byte[] row;
+	private int rowsWritten;
+	private boolean closed;
+	
+	// The deflater is only created once the header is written, so a failed constructor has nothing to release
+	public PNGStripWriter(OutputStream out, int width, int height, int compressionLevel) throws IOException {
+		this.out = new DataOutputStream(out);
+		this.width = width;
+		this.height = height;
+		this.row = new byte[1 + width * 3];
+		
+		this.out.write(SIGNATURE);
+		ByteArrayOutputStream header = new ByteArrayOutputStream();
+		DataOutputStream headerData = new DataOutputStream(header);
+		headerData.writeInt(width);
+		headerData.writeInt(height);
+		headerData.writeByte(8); // Bit depth
+		headerData.writeByte(2); // Truecolor
+		headerData.writeByte(0); // Deflate
+		headerData.writeByte(0); // Adaptive filtering
+		headerData.writeByte(0); // No interlacing
+		writeChunk("IHDR", header.toByteArray(), header.size());
+		this.deflater = new Deflater(compressionLevel);
+		this.data = new DeflaterOutputStream(new ChunkOutputStream(), deflater, CHUNK_SIZE);
+	}
+	public PNGStripWriter(OutputStream out, int width, int height) throws IOException {
+		this(out, width, height, Deflater.DEFAULT_COMPRESSION);
+	}
+	
+	public void writeRows(int[] pixels, int fromY, int toY) throws IOException {
+		if (rowsWritten + toY - fromY > height)
+			throw new IllegalStateException("Too many rows for a " + width + "x" + height + " image");
+		for (int y = fromY; y < toY; y++) {
+			row[0] = FILTER_SUB;
+			int previous = 0;
+			for (int x = 0; x < width; x++) {
+				int rgb = pixels[y * width + x];
+				row[1 + x * 3] = (byte) ((rgb >> 16) - (previous >> 16));
+				row[2 + x * 3] = (byte) ((rgb >> 8) - (previous >> 8));
+				row[3 + x * 3] = (byte) (rgb - previous);
+				previous = rgb;
+			}
+			data.write(row);
+		}
+		rowsWritten += toY - fromY;
+	}
+	
+	// Always releases the deflater, even when the image is incomplete
+	@Override
+	public void close() throws IOException {
+		if (closed)
+			return;
+		closed = true;
+		try {
+			if (rowsWritten != height)
+				throw new IllegalStateException("Only " + rowsWritten + " of " + height + " rows were written");
+			data.close();
+			writeChunk("IEND", new byte[0], 0);
+			out.flush();
+		} finally {
+			deflater.end();
+		}
+	}
+	
+	private void writeChunk(String type, byte[] data, int length) throws IOException {
+		byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+		CRC32 crc = new CRC32();
+		crc.update(typeBytes);
+		crc.update(data, 0, length);
+		out.writeInt(length);
+		out.write(typeBytes);
+		out.write(data, 0, length);
+		out.writeInt((int) crc.getValue());
+	}
+	
+	private class ChunkOutputStream extends OutputStream {
+		private final byte[] buffer = new byte[CHUNK_SIZE];
+		private int length;
+		
+		@Override
+		public void write(int b) throws IOException {
+			buffer[length++] = (byte) b;
+			if (length == buffer.length)
+				flush();
+		}
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			while (len > 0) {
+				int count = Math.min(len, buffer.length - length);
+				System.arraycopy(b, off, buffer, length, count);
+				length += count;
+				off += count;
+				len -= count;
+				if (length == buffer.length)
+					flush();
+			}
+		}
+		@Override
+		public void flush() throws IOException {
+			if (length > 0) {
+				writeChunk("IDAT", buffer, length);
+				length = 0;
+			}
+		}
+		@Override
+		public void close() throws IOException {
+			flush();
+		}
+	}
+	
+}
@@ -0,0 +1,556 @@
+package com.luneruniverse.imagecalculus;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.LongAccumulator;
+
+// A graph of operations that is rendered a strip of rows at a time. Every node pulls the rows it needs from
+// its inputs as it goes, so the intermediate images never exist as a whole. An integral needs its input
+// more than once, so that part of the graph is recomputed for each pass rather than stored.
+public abstract class Pipeline {
+	
+	private static final int STRIP_PIXELS = 1 << 18;
+	
+	public static Pipeline source(PixelRaster img) {
+		return new Source(img.pixels(), img.width(), img.height());
+	}
+	public static Pipeline derivative(Pipeline input, ImageSettings settings) {
+		return new Derivative(input, settings, false);
+	}
+	public static Pipeline derivative2(Pipeline input, ImageSettings settings) {
+		return new Derivative(input, settings, true);
+	}
+	public static Pipeline integrate(Pipeline input, ImageSettings settings) {
+		return new Integral(input, settings);
+	}
+	public static Pipeline add(Pipeline inputA, Pipeline inputB, ImageSettings settings) {
+		return new Sum(inputA, inputB, settings);
+	}
+	public static Pipeline filter(Pipeline input, Stencil stencil, ImageSettings settings) {
+		return new Filter(input, stencil, settings);
+	}
+	
+	// Parses expressions like add(src, integrate(derivative(src)))
+	public static Pipeline parse(String expression, Pipeline source, ImageSettings settings) {
+		return parse(expression, source, new Operations<>() {
+			@Override
+			public Pipeline derivative(Pipeline input) {
+				return Pipeline.derivative(input, settings);
+			}
+			@Override
+			public Pipeline derivative2(Pipeline input) {
+				return Pipeline.derivative2(input, settings);
+			}
+			@Override
+			public Pipeline integrate(Pipeline input) {
+				return Pipeline.integrate(input, settings);
+			}
+			@Override
+			public Pipeline add(Pipeline inputA, Pipeline inputB) {
+				return Pipeline.add(inputA, inputB, settings);
+			}
+			@Override
+			public Pipeline filter(Pipeline input, Stencil stencil) {
+				return Pipeline.filter(input, stencil, settings);
+			}
+		});
+	}
+	// Evaluates the same expressions with other implementations of the operations, such as Processor.evaluate
+	public static <T> T parse(String expression, T source, Operations<T> operations) {
+		Parser<T> parser = new Parser<>(expression.replaceAll("\\s", ""), source, operations);
+		T output = parser.parse();
+		if (parser.i < parser.expression.length())
+			throw new IllegalArgumentException("Unexpected '" + parser.expression.charAt(parser.i) + "' in " + expression);
+		return output;
+	}
+	public interface Operations<T> {
+		public T derivative(T input);
+		public T derivative2(T input);
+		public T integrate(T input);
+		public T add(T inputA, T inputB);
+		// Named stencils, such as sobelx(src)
+		public T filter(T input, Stencil stencil);
+	}
+	private static class Parser<T> {
+		private final String expression;
+		private final T source;
+		private final Operations<T> operations;
+		private int i;
+		
+		public Parser(String expression, T source, Operations<T> operations) {
+			this.expression = expression;
+			this.source = source;
+			this.operations = operations;
+		}
+		
+		public T parse() {
+			int start = i;
+			while (i < expression.length() && Character.isLetterOrDigit(expression.charAt(i)))
+				i++;
+			String name = expression.substring(start, i);
+			if (name.equals("src"))
+				return source;
+			expect('(');
+			T input = parse();
+			T output = switch (name) {
+				case "derivative" -> operations.derivative(input);
+				case "derivative2" -> operations.derivative2(input);
+				case "integrate" -> operations.integrate(input);
+				case "add" -> {
+					expect(',');
+					yield operations.add(input, parse());
+				}
+				default -> {
+					Stencil stencil = Stencil.forName(name);
+					if (stencil == null)
+						throw new IllegalArgumentException("Unknown operation: '" + name + "'");
+					yield operations.filter(input, stencil);
+				}
+			};
+			expect(')');
+			return output;
+		}
+		private void expect(char c) {
+			if (i >= expression.length() || expression.charAt(i) != c)
+				throw new IllegalArgumentException("Expected '" + c + "' at " + i + " in " + expression);
+			i++;
+		}
+	}
+	
+	
+	protected interface Cursor {
+		// Writes the next rows, starting at the given index
+		public void read(int[] output, int offset, int rows);
+	}
+	private interface StripConsumer {
+		public void accept(int[] strip, int y, int rows);
+	}
+	
+	protected final int width;
+	protected final int height;
+	
+	protected Pipeline(int width, int height) {
+		this.width = width;
+		this.height = height;
+	}
+	
+	public int getWidth() {
+		return width;
+	}
+	public int getHeight() {
+		return height;
+	}
+	
+	public PixelRaster render() {
+		return render(ExecutionOptions.DEFAULT);
+	}
+	public PixelRaster render(ExecutionOptions options) {
+		return ProcessingMetrics.measure("pipeline", (long) width * height, () -> {
+			ProcessingMetrics.measure("prepare", (long) width * height, () -> prepare(options));
+			PixelRaster output = new PixelRaster(width, height);
+			int[] pixels = output.pixels();
+			ProcessingMetrics.measure("render", (long) width * height, () ->
+					forEachStrip(height, options, (strip, y, rows) -> System.arraycopy(strip, 0, pixels, y * width, rows * width)));
+			return output;
+		});
+	}
+	
+	// Runs the passes that have to see the whole input before the first row can be read
+	protected abstract void prepare(ExecutionOptions options);
+	// The options of a cursor have no monitor, since progress is reported per strip
+	protected abstract Cursor open(ExecutionOptions options);
+	
+	private void forEachStrip(int rows, ExecutionOptions options, StripConsumer consumer) {
+		ProcessingMonitor monitor = options.monitor();
+		monitor.onPassStart(rows);
+		Cursor cursor = open(options.withMonitor(ProcessingMonitor.NONE));
+		int stripRows = getStripRows(options);
+		int[] strip = new int[stripRows * width];
+		for (int y = 0; y < rows; y += stripRows) {
+			if (monitor.isCancelled())
+				throw new CancellationException();
+			int stripHeight = Math.min(stripRows, rows - y);
+			cursor.read(strip, 0, stripHeight);
+			consumer.accept(strip, y, stripHeight);
+			monitor.onRowsComplete(stripHeight);
+		}
+	}
+	private int getStripRows(ExecutionOptions options) {
+		return Math.max(1, Math.min(height, Math.max(options.parallelism() * 4, STRIP_PIXELS / width)));
+	}
+	
+	
+	private static class Source extends Pipeline {
+		private final int[] pixels;
+		
+		public Source(int[] pixels, int width, int height) {
+			super(width, height);
+			this.pixels = pixels;
+		}
+		
+		@Override
+		protected void prepare(ExecutionOptions options) {}
+		
+		@Override
+		protected Cursor open(ExecutionOptions options) {
+			int[] y = { 0 };
+			return (output, offset, rows) -> {
+				System.arraycopy(pixels, y[0] * width, output, offset, rows * width);
+				y[0] += rows;
+			};
+		}
+	}
+	
+	// Keeps a window of the input rows with a row of halo on either side, carrying the last rows
+	// of each window over to the next one
+	private static class Derivative extends Pipeline {
+		private final Pipeline input;
+		private final ImageSettings settings;
+		private final boolean second;
+		
+		public Derivative(Pipeline input, ImageSettings settings, boolean second) {
+			super(input.width, input.height);
+			this.input = input;
+			this.settings = settings;
+			this.second = second;
+		}
+		
+		@Override
+		protected void prepare(ExecutionOptions options) {
+			input.prepare(options);
+		}
+		
+		@Override
+		protected Cursor open(ExecutionOptions options) {
+			Cursor inputCursor = input.open(options);
+			return new Cursor() {
+				private int y;
+				private int[] window = new int[0];
+				private int windowTop;
+				private int windowBottom;
+				private int[] windowOutput;
+				private float[][] hsv;
+				private ChannelBuffer colors;
+				private ChannelBuffer newColors;
+				
+				@Override
+				public void read(int[] output, int offset, int rows) {
+					int top = Math.max(0, y - 1);
+					int bottom = Math.min(height, y + rows + 1);
+					int kept = windowBottom - top;
+					int[] oldWindow = window;
+					if (window.length < (bottom - top) * width) {
+						window = new int[(rows + 2) * width];
+						windowOutput = new int[window.length];
+					}
+					System.arraycopy(oldWindow, (top - windowTop) * width, window, 0, kept * width);
+					inputCursor.read(window, kept * width, bottom - windowBottom);
+					windowTop = top;
+					windowBottom = bottom;
+					
+					int fromY = y - top;
+					int toY = fromY + rows;
+					if (second)
+						derivative2(output, offset, bottom - top, fromY, toY, options);
+					else
+						derivative(output, offset, bottom - top, fromY, toY, options);
+					y += rows;
+				}
+				
+				private void derivative(int[] output, int offset, int rows, int fromY, int toY, ExecutionOptions options) {
+					if (settings.type() == Color.Type.RGB) {
+						options.forEachBand(fromY, toY, (from, to) -> {
+							if (options.isVectorized())
+								VectorKernels.derivativeRGB(window, windowOutput, width, rows, from, to);
+							else
+								RasterKernels.derivativeRGB(window, windowOutput, width, rows, from, to);
+						});
+					} else {
+						if (hsv == null || hsv[0].length < window.length)
+							hsv = new float[3][window.length];
+						options.forEachBand(rows, (from, to) -> HSVConverter.toHSV(window, hsv, from * width, to * width));
+						options.forEachBand(fromY, toY, (from, to) ->
+								RasterKernels.derivativeHSV(hsv, windowOutput, width, rows, from, to));
+					}
+					System.arraycopy(windowOutput, fromY * width, output, offset, (toY - fromY) * width);
+				}
+				
+				private void derivative2(int[] output, int offset, int rows, int fromY, int toY, ExecutionOptions options) {
+					if (colors == null || colors.getHeight() < rows) {
+						colors = new ChannelBuffer(width, window.length / width);
+						newColors = new ChannelBuffer(width, window.length / width);
+					}
+					int centerY = height / 2 - windowTop;
+					options.forEachBand(rows, (from, to) -> colors.decode(window, 0, settings.type(), from, to));
+					options.forEachBand(fromY, toY, (from, to) -> {
+						for (int channel = 0; channel < ChannelBuffer.CHANNELS; channel++) {
+							int[] values = colors.getChannel(channel);
+							int[] newValues = newColors.getChannel(channel);
+							if (options.isVectorized())
+								VectorKernels.secondDifference(values, newValues, width, rows, width / 2, centerY, from, to);
+							else
+								RasterKernels.secondDifference(values, newValues, width, rows, width / 2, centerY, from, to);
+						}
+						newColors.encode(output, offset - fromY * width, settings.type(), from, to);
+					});
+				}
+			};
+		}
+	}
+	
+	// The same running column sums as the StreamingProcessor, except that every strip is first scanned
+	// by row and then summed by column, so both steps can be split between threads
+	private static class Integral extends Pipeline {
+		private final Pipeline input;
+		private final ImageSettings settings;
+		private long[][] totals;
+		private long min;
+		private long max;
+		
+		public Integral(Pipeline input, ImageSettings settings) {
+			super(input.width, input.height);
+			this.input = input;
+			this.settings = settings;
+		}
+		
+		@Override
+		protected void prepare(ExecutionOptions options) {
+			input.prepare(options);
+			int centerY = height / 2;
+			totals = new long[ChannelBuffer.CHANNELS][width];
+			Strip totalsStrip = new Strip();
+			input.forEachStrip(centerY + 1, options, (strip, y, rows) -> {
+				ExecutionOptions innerOptions = options.withMonitor(ProcessingMonitor.NONE);
+				long[][] sums = totalsStrip.scanRows(strip, rows, innerOptions);
+				innerOptions.forEachBand(width, (fromX, toX) -> {
+					for (int channel = 0; channel < ChannelBuffer.CHANNELS; channel++) {
+						for (int row = 0; row < rows; row++) {
+							for (int x = fromX; x < toX; x++)
+								totals[channel][x] += sums[channel][row * width + x];
+						}
+					}
+				});
+			});
+			
+			LongAccumulator minAccumulator = new LongAccumulator(Math::min, Long.MAX_VALUE);
+			LongAccumulator maxAccumulator = new LongAccumulator(Math::max, Long.MIN_VALUE);
+			if (settings.rescale()) {
+				Strip rangeStrip = new Strip();
+				input.forEachStrip(height, options, (strip, y, rows) -> {
+					ExecutionOptions innerOptions = options.withMonitor(ProcessingMonitor.NONE);
+					long[][] sums = rangeStrip.integrate(strip, y, rows, innerOptions);
+					innerOptions.forEachBand(rows, (fromY, toY) -> {
+						long bandMin = Long.MAX_VALUE;
+						long bandMax = Long.MIN_VALUE;
+						for (long[] channel : sums) {
+							for (int i = fromY * width; i < toY * width; i++) {
+								long color = channel[i];
+								if (color < bandMin)
+									bandMin = color;
+								if (color > bandMax)
+									bandMax = color;
+							}
+						}
+						minAccumulator.accumulate(bandMin);
+						maxAccumulator.accumulate(bandMax);
+					});
+				});
+			}
+			min = minAccumulator.get();
+			max = maxAccumulator.get();
+		}
+		
+		@Override
+		protected Cursor open(ExecutionOptions options) {
+			Cursor inputCursor = input.open(options);
+			Strip strip = new Strip();
+			int[] y = { 0 };
+			return (output, offset, rows) -> {
+				if (strip.input.length < rows * width)
+					strip.input = new int[rows * width];
+				inputCursor.read(strip.input, 0, rows);
+				long[][] sums = strip.integrate(strip.input, y[0], rows, options);
+				options.forEachBand(rows, (fromY, toY) -> {
+					for (int channel = 0; channel < ChannelBuffer.CHANNELS; channel++) {
+						int[] values = strip.buffer.getChannel(channel);
+						for (int i = fromY * width; i < toY * width; i++)
+							values[i] = Processor.toIntegralValue(sums[channel][i], settings.rescale(), min, max);
+					}
+					strip.buffer.encode(output, offset, settings.type(), fromY, toY);
+				});
+				y[0] += rows;
+			};
+		}
+		
+		private class Strip {
+			private int[] input = new int[0];
+			private ChannelBuffer buffer;
+			private long[][] sums;
+			private final long[][] columns;
+			
+			public Strip() {
+				columns = new long[ChannelBuffer.CHANNELS][];
+				for (int channel = 0; channel < ChannelBuffer.CHANNELS; channel++)
+					columns[channel] = totals[channel].clone();
+			}
+			
+			// Returns the signed input summed outward from the center column
+			public long[][] scanRows(int[] strip, int rows, ExecutionOptions options) {
+				if (buffer == null || buffer.getHeight() < rows) {
+					buffer = new ChannelBuffer(width, rows);
+					sums = new long[ChannelBuffer.CHANNELS][rows * width];
+				}
+				options.forEachBand(rows, (fromY, toY) -> {
+					buffer.decode(strip, 0, settings.type(), fromY, toY);
+					Processor.toSigned(buffer, fromY * width, toY * width);
+					for (int channel = 0; channel < ChannelBuffer.CHANNELS; channel++) {
+						for (int row = fromY; row < toY; row++)
+							PrefixSums.scanRow(buffer.getChannel(channel), row * width, sums[channel], row * width, width, width / 2);
+					}
+				});
+				return sums;
+			}
+			
+			// Replaces the row sums with the integral, carrying the column sums on to the next strip
+			public long[][] integrate(int[] strip, int y, int rows, ExecutionOptions options) {
+				long[][] sums = scanRows(strip, rows, options);
+				int centerY = height / 2;
+				options.forEachBand(width, (fromX, toX) -> {
+					for (int channel = 0; channel < ChannelBuffer.CHANNELS; channel++) {
+						long[] rowSums = sums[channel];
+						long[] columnSums = columns[channel];
+						for (int x = fromX; x < toX; x++) {
+							long sum = columnSums[x];
+							for (int row = 0; row < rows; row++) {
+								int i = row * width + x;
+								long rowSum = rowSums[i];
+								if (y + row > centerY)
+									sum += rowSum;
+								rowSums[i] = sum;
+								if (y + row < centerY)
+									sum -= rowSum;
+							}
+							columnSums[x] = sum;
+						}
+					}
+				});
+				return sums;
+			}
+		}
+	}
+	
+	// The same window as the derivatives, with as much halo as the stencil reaches
+	private static class Filter extends Pipeline {
+		private final Pipeline input;
+		private final Stencil stencil;
+		private final ImageSettings settings;
+		
+		public Filter(Pipeline input, Stencil stencil, ImageSettings settings) {
+			super(input.width, input.height);
+			this.input = input;
+			this.stencil = stencil;
+			this.settings = settings;
+		}
+		
+		@Override
+		protected void prepare(ExecutionOptions options) {
+			input.prepare(options);
+		}
+		
+		@Override
+		protected Cursor open(ExecutionOptions options) {
+			Cursor inputCursor = input.open(options);
+			int topHalo = stencil.getTopHalo();
+			int bottomHalo = stencil.getBottomHalo();
+			return new Cursor() {
+				private int y;
+				private int[] window = new int[0];
+				private int windowTop;
+				private int windowBottom;
+				private float[][] values;
+				private float[][] newValues;
+				
+				@Override
+				public void read(int[] output, int offset, int rows) {
+					int top = Math.max(0, y - topHalo);
+					int bottom = Math.min(height, y + rows + bottomHalo);
+					int kept = windowBottom - top;
+					int[] oldWindow = window;
+					if (window.length < (bottom - top) * width) {
+						window = new int[(rows + topHalo + bottomHalo) * width];
+						values = new float[ChannelBuffer.CHANNELS][window.length];
+						newValues = new float[ChannelBuffer.CHANNELS][window.length];
+					}
+					System.arraycopy(oldWindow, (top - windowTop) * width, window, 0, kept * width);
+					inputCursor.read(window, kept * width, bottom - windowBottom);
+					windowTop = top;
+					windowBottom = bottom;
+					
+					int windowRows = bottom - top;
+					int fromY = y - top;
+					int toY = fromY + rows;
+					options.forEachBand(windowRows, (from, to) ->
+							SignedRaster.decode(window, 0, settings.type(), values, from * width, to * width));
+					options.forEachBand(fromY, toY, (from, to) -> {
+						for (int channel = 0; channel < ChannelBuffer.CHANNELS; channel++)
+							stencil.apply(values[channel], newValues[channel], width, windowRows, from, to);
+						SignedRaster.encode(newValues, true, settings.type(), output, offset - fromY * width, from * width, to * width);
+					});
+					y += rows;
+				}
+			};
+		}
+	}
+	
+	private static class Sum extends Pipeline {
+		private final Pipeline inputA;
+		private final Pipeline inputB;
+		private final ImageSettings settings;
+		
+		public Sum(Pipeline inputA, Pipeline inputB, ImageSettings settings) {
+			super(Math.min(inputA.width, inputB.width), Math.min(inputA.height, inputB.height));
+			this.inputA = inputA;
+			this.inputB = inputB;
+			this.settings = settings;
+		}
+		
+		@Override
+		protected void prepare(ExecutionOptions options) {
+			inputA.prepare(options);
+			inputB.prepare(options);
+		}
+		
+		@Override
+		protected Cursor open(ExecutionOptions options) {
+			Cursor cursorA = inputA.open(options);
+			Cursor cursorB = inputB.open(options);
+			int widthA = inputA.width;
+			int widthB = inputB.width;
+			return new Cursor() {
+				private int[] stripA = new int[0];
+				private int[] stripB = new int[0];
+				private int[] stripOutput = new int[0];
+				
+				@Override
+				public void read(int[] output, int offset, int rows) {
+					if (stripOutput.length < rows * width) {
+						stripA = new int[rows * widthA];
+						stripB = new int[rows * widthB];
+						stripOutput = new int[rows * width];
+					}
+					cursorA.read(stripA, 0, rows);
+					cursorB.read(stripB, 0, rows);
+					options.forEachBand(rows, (fromY, toY) -> {
+						if (settings.type() == Color.Type.HSV)
+							RasterKernels.addHSV(stripA, widthA, stripB, widthB, stripOutput, width, fromY, toY);
+						else if (options.isVectorized())
+							VectorKernels.addRGB(stripA, widthA, stripB, widthB, stripOutput, width, fromY, toY);
+						else
+							RasterKernels.addRGB(stripA, widthA, stripB, widthB, stripOutput, width, fromY, toY);
+					});
+					System.arraycopy(stripOutput, 0, output, offset, rows * width);
+				}
+			};
+		}
+	}
+	
+}
@@ -0,0 +1,27 @@
+package com.luneruniverse.imagecalculus;
+
+// A packed ARGB image, row by row, which is what every operation takes and returns
+public record PixelRaster(int width, int height, int[] pixels) {
+	
+	public PixelRaster {
+		if (width < 1 || height < 1)
+			throw new IllegalArgumentException("The size must be at least 1x1: " + width + "x" + height);
+		if (pixels.length < (long) width * height)
+			throw new IllegalArgumentException("Only " + pixels.length + " pixels for a " + width + "x" + height + " raster");
+	}
+	public PixelRaster(int width, int height) {
+		this(width, height, new int[Math.multiplyExact(width, height)]);
+	}
+	
+	public int getRGB(int x, int y) {
+		return pixels[y * width + x];
+	}
+	public void setRGB(int x, int y, int rgb) {
+		pixels[y * width + x] = rgb;
+	}
+	
+	public long getPixelCount() {
+		return (long) width * height;
+	}
+	
+}
@@ -0,0 +1,144 @@
+package com.luneruniverse.imagecalculus;
+
+public class PrefixSums {
+	
+	// Returns planes where every value is the sum of the rectangle between it and the center. The
+	// scans walk outward from the center, so the four quadrants never read each other's results
+	public static long[][] accumulateFromCenter(ChannelBuffer buffer, int centerX, int centerY, ExecutionOptions options) {
+		int width = buffer.getWidth();
+		int height = buffer.getHeight();
+		long[][] planes = new long[ChannelBuffer.CHANNELS][width * height];
+		options.forEachBand(height, (fromY, toY) -> {
+			for (int channel = 0; channel < planes.length; channel++) {
+				for (int y = fromY; y < toY; y++)
+					scanRow(buffer.getChannel(channel), y * width, planes[channel], y * width, width, centerX);
+			}
+		});
+		options.forEachBand(width, (fromX, toX) -> {
+			for (long[] plane : planes) {
+				for (int y = centerY + 1; y < height; y++)
+					addRow(plane, (y - 1) * width, y * width, fromX, toX);
+				for (int y = centerY - 1; y >= 0; y--)
+					addRow(plane, (y + 1) * width, y * width, fromX, toX);
+			}
+		});
+		return planes;
+	}
+	
+	// The same, for float channels that are read as value * scale + offset
+	public static double[][] accumulateFromCenter(float[][] channels, float scale, float offset, int width, int height,
+			int centerX, int centerY, ExecutionOptions options) {
+		double[][] planes = new double[channels.length][width * height];
+		options.forEachBand(height, (fromY, toY) -> {
+			for (int channel = 0; channel < planes.length; channel++) {
+				for (int y = fromY; y < toY; y++)
+					scanRow(channels[channel], scale, offset, y * width, planes[channel], width, centerX);
+			}
+		});
+		options.forEachBand(width, (fromX, toX) -> {
+			for (double[] plane : planes) {
+				for (int y = centerY + 1; y < height; y++)
+					addRow(plane, (y - 1) * width, y * width, fromX, toX);
+				for (int y = centerY - 1; y >= 0; y--)
+					addRow(plane, (y + 1) * width, y * width, fromX, toX);
+			}
+		});
+		return planes;
+	}
+	
+	// Returns planes with a row and a column of zeros before the image, where every other value is the sum of the
+	// rectangle above and to the left of it, which is what a SummedAreaTable is queried with
+	public static long[][] accumulate(ChannelBuffer buffer, ExecutionOptions options) {
+		int width = buffer.getWidth();
+		int height = buffer.getHeight();
+		int stride = width + 1;
+		long[][] planes = new long[ChannelBuffer.CHANNELS][Math.multiplyExact(stride, height + 1)];
+		options.forEachBand(height, (fromY, toY) -> {
+			for (int channel = 0; channel < planes.length; channel++) {
+				for (int y = fromY; y < toY; y++)
+					scanRow(buffer.getChannel(channel), y * width, planes[channel], (y + 1) * stride + 1, width, 0);
+			}
+		});
+		options.forEachBand(width, (fromX, toX) -> {
+			for (long[] plane : planes) {
+				for (int y = 2; y <= height; y++)
+					addRow(plane, (y - 1) * stride + 1, y * stride + 1, fromX, toX);
+			}
+		});
+		return planes;
+	}
+	
+	// Finishes planes that already hold the row sums by scanning their columns outward from the center row
+	public static void accumulateFromCenter(OffHeapRaster.LongPlane[] planes, int width, int height, int centerY, ExecutionOptions options) {
+		options.forEachBand(width, (fromX, toX) -> {
+			long[] previous = new long[toX - fromX];
+			long[] current = new long[toX - fromX];
+			for (OffHeapRaster.LongPlane plane : planes) {
+				plane.readRow(centerY, fromX, toX, previous, 0);
+				for (int y = centerY + 1; y < height; y++)
+					addRow(plane, previous, current, y, fromX, toX);
+				plane.readRow(centerY, fromX, toX, previous, 0);
+				for (int y = centerY - 1; y >= 0; y--)
+					addRow(plane, previous, current, y, fromX, toX);
+			}
+		});
+	}
+	// Leaves the new row in previous for the next one
+	private static void addRow(OffHeapRaster.LongPlane plane, long[] previous, long[] current, int y, int fromX, int toX) {
+		plane.readRow(y, fromX, toX, current, 0);
+		for (int x = 0; x < current.length; x++)
+			previous[x] = current[x] += previous[x];
+		plane.writeRow(y, fromX, toX, current, 0);
+	}
+	// The same, for the sums of float channels
+	public static void accumulateFromCenter(OffHeapRaster.DoublePlane[] planes, int width, int height, int centerY, ExecutionOptions options) {
+		options.forEachBand(width, (fromX, toX) -> {
+			double[] previous = new double[toX - fromX];
+			double[] current = new double[toX - fromX];
+			for (OffHeapRaster.DoublePlane plane : planes) {
+				plane.readRow(centerY, fromX, toX, previous, 0);
+				for (int y = centerY + 1; y < height; y++)
+					addRow(plane, previous, current, y, fromX, toX);
+				plane.readRow(centerY, fromX, toX, previous, 0);
+				for (int y = centerY - 1; y >= 0; y--)
+					addRow(plane, previous, current, y, fromX, toX);
+			}
+		});
+	}
+	private static void addRow(OffHeapRaster.DoublePlane plane, double[] previous, double[] current, int y, int fromX, int toX) {
+		plane.readRow(y, fromX, toX, current, 0);
+		for (int x = 0; x < current.length; x++)
+			previous[x] = current[x] += previous[x];
+		plane.writeRow(y, fromX, toX, current, 0);
+	}
+	
+	// Sums every value in the row with the ones between it and the center
+	public static void scanRow(int[] values, int valuesRow, long[] sums, int sumsRow, int width, int center) {
+		long sum = sums[sumsRow + center] = values[valuesRow + center];
+		for (int x = center + 1; x < width; x++)
+			sums[sumsRow + x] = sum += values[valuesRow + x];
+		sum = sums[sumsRow + center];
+		for (int x = center - 1; x >= 0; x--)
+			sums[sumsRow + x] = sum += values[valuesRow + x];
+	}
+	
+	private static void addRow(long[] plane, int fromRow, int toRow, int fromX, int toX) {
+		for (int x = fromX; x < toX; x++)
+			plane[toRow + x] += plane[fromRow + x];
+	}
+	
+	// Reads the values as value * scale + offset
+	static void scanRow(float[] values, float scale, float offset, int row, double[] sums, int width, int center) {
+		double sum = sums[row + center] = values[row + center] * scale + offset;
+		for (int x = center + 1; x < width; x++)
+			sums[row + x] = sum += values[row + x] * scale + offset;
+		sum = sums[row + center];
+		for (int x = center - 1; x >= 0; x--)
+			sums[row + x] = sum += values[row + x] * scale + offset;
+	}
+	private static void addRow(double[] plane, int fromRow, int toRow, int fromX, int toX) {
+		for (int x = fromX; x < toX; x++)
+			plane[toRow + x] += plane[fromRow + x];
+	}
+	
+}
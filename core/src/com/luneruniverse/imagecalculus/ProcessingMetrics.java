@@ -0,0 +1,219 @@
+package com.luneruniverse.imagecalculus;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+// Times every operation and the stages inside of it. A measurement started while none is running on the
+// thread is a run of its own, and the ones started inside of it are its stages. Allocations are counted on
+// the thread that measures and on the pool threads running its bands, so other work going on at the same
+// time isn't charged to it.
+public class ProcessingMetrics implements ProcessingMetricsMBean {
+	
+	public static final ProcessingMetrics INSTANCE = new ProcessingMetrics(100);
+	static {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE,
+					new ObjectName("com.luneruniverse.imagecalculus:type=ProcessingMetrics"));
+		} catch (JMException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	public interface Task<T, E extends Exception> {
+		public T run() throws E;
+	}
+	public interface VoidTask<E extends Exception> {
+		public void run() throws E;
+	}
+	public static <T, E extends Exception> T measure(String name, long pixels, Task<T, E> task) throws E {
+		Measurement measurement = INSTANCE.new Measurement(name, pixels);
+		try {
+			return task.run();
+		} finally {
+			measurement.end();
+		}
+	}
+	public static <E extends Exception> void measure(String name, long pixels, VoidTask<E> task) throws E {
+		Measurement measurement = INSTANCE.new Measurement(name, pixels);
+		try {
+			task.run();
+		} finally {
+			measurement.end();
+		}
+	}
+	
+	public record Stage(String name, long pixels, long nanos, long allocatedBytes) {
+		public double getPixelsPerSecond() {
+			return pixels * 1e9 / Math.max(1, nanos);
+		}
+		@Override
+		public String toString() {
+			return String.format(Locale.ROOT, "%s %.1f ms (%.1f MP/s, %.1f MB)", name, nanos / 1e6, getPixelsPerSecond() / 1e6, allocatedBytes / 1e6);
+		}
+	}
+	public record Run(Stage total, List<Stage> stages, long time) {
+		@Override
+		public String toString() {
+			StringBuilder output = new StringBuilder(total.toString());
+			for (int i = 0; i < stages.size(); i++)
+				output.append(i == 0 ? ": " : ", ").append(stages.get(i));
+			return output.toString();
+		}
+	}
+	
+	private static final com.sun.management.ThreadMXBean threads = getThreads();
+	private static com.sun.management.ThreadMXBean getThreads() {
+		if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean threads
+				&& threads.isThreadAllocatedMemorySupported()) {
+			threads.setThreadAllocatedMemoryEnabled(true);
+			return threads;
+		}
+		return null;
+	}
+	// Of the current thread only
+	private static long getAllocatedBytes() {
+		return (threads == null ? 0 : Math.max(0, threads.getCurrentThreadAllocatedBytes()));
+	}
+	
+	// Adds what the pool threads allocate while running the band to the measurements running on this thread
+	static ExecutionOptions.Band track(ExecutionOptions.Band band) {
+		Measurement measurement = INSTANCE.current.get();
+		if (measurement == null || threads == null)
+			return band;
+		Thread owner = Thread.currentThread();
+		return (from, to) -> {
+			if (Thread.currentThread() == owner) {
+				band.process(from, to);
+				return;
+			}
+			long startBytes = getAllocatedBytes();
+			try {
+				band.process(from, to);
+			} finally {
+				long bytes = getAllocatedBytes() - startBytes;
+				for (Measurement enclosing = measurement; enclosing != null; enclosing = enclosing.parent)
+					enclosing.bandBytes.add(bytes);
+			}
+		};
+	}
+	
+	
+	private final int historySize;
+	private final ThreadLocal<Measurement> current;
+	private final ArrayDeque<Run> history;
+	private final Map<String, Stage> totals;
+	private final Map<String, Integer> counts;
+	private final List<Consumer<Run>> listeners;
+	private long runCount;
+	
+	public ProcessingMetrics(int historySize) {
+		this.historySize = historySize;
+		this.current = new ThreadLocal<>();
+		this.history = new ArrayDeque<>();
+		this.totals = new LinkedHashMap<>();
+		this.counts = new LinkedHashMap<>();
+		this.listeners = new CopyOnWriteArrayList<>();
+	}
+	
+	private class Measurement {
+		private final String name;
+		private final long pixels;
+		private final Measurement parent;
+		private final Map<String, Stage> stages;
+		private final LongAdder bandBytes;
+		private final long startBytes;
+		private final long start;
+		
+		private Measurement(String name, long pixels) {
+			this.name = name;
+			this.pixels = pixels;
+			this.parent = current.get();
+			this.stages = (parent == null ? new LinkedHashMap<>() : parent.stages);
+			this.bandBytes = new LongAdder();
+			current.set(this);
+			this.startBytes = getAllocatedBytes();
+			this.start = System.nanoTime();
+		}
+		
+		// Stages with the same name are added together, such as every strip of a streamed image
+		public void end() {
+			Stage stage = new Stage(name, pixels, System.nanoTime() - start, getAllocatedBytes() - startBytes + bandBytes.sum());
+			if (parent == null) {
+				current.remove();
+				record(new Run(stage, List.copyOf(stages.values()), System.currentTimeMillis()));
+			} else {
+				current.set(parent);
+				stages.merge(name, stage, ProcessingMetrics::add);
+			}
+		}
+	}
+	private static Stage add(Stage a, Stage b) {
+		return new Stage(a.name(), a.pixels() + b.pixels(), a.nanos() + b.nanos(), a.allocatedBytes() + b.allocatedBytes());
+	}
+	
+	private void record(Run run) {
+		synchronized (this) {
+			history.addLast(run);
+			if (history.size() > historySize)
+				history.removeFirst();
+			runCount++;
+			addTotal(run.total(), run.total().name());
+			for (Stage stage : run.stages())
+				addTotal(stage, run.total().name() + "/" + stage.name());
+		}
+		for (Consumer<Run> listener : listeners)
+			listener.accept(run);
+	}
+	
+	private void addTotal(Stage stage, String name) {
+		totals.merge(name, new Stage(name, stage.pixels(), stage.nanos(), stage.allocatedBytes()), ProcessingMetrics::add);
+		counts.merge(name, 1, Integer::sum);
+	}
+	
+	public void addListener(Consumer<Run> listener) {
+		listeners.add(listener);
+	}
+	public void removeListener(Consumer<Run> listener) {
+		listeners.remove(listener);
+	}
+	
+	// Oldest first
+	public synchronized List<Run> getRuns() {
+		return List.copyOf(history);
+	}
+	
+	@Override
+	public synchronized String[] getHistory() {
+		return history.stream().map(Run::toString).toArray(String[]::new);
+	}
+	// The averages of every operation and of every stage within them, such as integrate/accumulate
+	@Override
+	public synchronized String[] getAverages() {
+		return totals.values().stream().map(total -> {
+			int count = counts.get(total.name());
+			return count + "x " + new Stage(total.name(), total.pixels() / count, total.nanos() / count, total.allocatedBytes() / count);
+		}).toArray(String[]::new);
+	}
+	@Override
+	public synchronized long getRunCount() {
+		return runCount;
+	}
+	@Override
+	public synchronized void reset() {
+		history.clear();
+		totals.clear();
+		counts.clear();
+		runCount = 0;
+	}
+	
+}
@@ -0,0 +1,8 @@
+package com.luneruniverse.imagecalculus;
+
+public interface ProcessingMetricsMBean {
+	public String[] getHistory();
+	public String[] getAverages();
+	public long getRunCount();
+	public void reset();
+}
@@ -0,0 +1,13 @@
+package com.luneruniverse.imagecalculus;
+
+public interface ProcessingMonitor {
+	
+	public static final ProcessingMonitor NONE = new ProcessingMonitor() {};
+	
+	public default boolean isCancelled() {
+		return false;
+	}
+	public default void onPassStart(int rows) {}
+	public default void onRowsComplete(int rows) {}
+	
+}
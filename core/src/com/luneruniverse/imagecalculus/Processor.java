@@ -0,0 +1,720 @@
+package com.luneruniverse.imagecalculus;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.DoubleAccumulator;
+import java.util.concurrent.atomic.LongAccumulator;
+
+public class Processor {
+	
+	private static final int STRIP_HEIGHT = 64;
+	
+	public static PixelRaster process(PixelRaster img, ImageSettings settings) {
+		return process(img, settings, ExecutionOptions.DEFAULT);
+	}
+	public static PixelRaster process(PixelRaster img, ImageSettings settings, ExecutionOptions options) {
+		if (settings.integral())
+			return integrate(img, settings, options);
+		if (settings.derivative2())
+			return derivative2(img, settings, options);
+		if (settings.slopeField())
+			return slopeField(img, settings, options);
+		return derivative(img, settings, options);
+	}
+	
+	public static PixelRaster derivative(PixelRaster img, ImageSettings settings) {
+		return derivative(img, settings, ExecutionOptions.DEFAULT);
+	}
+	public static PixelRaster derivative(PixelRaster img, ImageSettings settings, ExecutionOptions options) {
+		int width = img.width();
+		int height = img.height();
+		return ProcessingMetrics.measure("derivative", (long) width * height, () -> {
+			PixelRaster output = new PixelRaster(width, height);
+			derivative(img.pixels(), output.pixels(), width, height, 0, height, settings, options);
+			return output;
+		});
+	}
+	public static void derivative(int[] pixels, int[] output, int width, int height, int fromY, int toY, ImageSettings settings, ExecutionOptions options) {
+		long outputPixels = (long) (toY - fromY) * width;
+		if (settings.type() == Color.Type.RGB) {
+			ProcessingMetrics.measure("compute", outputPixels, () -> options.forEachBand(fromY, toY, (from, to) -> {
+				if (options.isVectorized())
+					VectorKernels.derivativeRGB(pixels, output, width, height, from, to);
+				else
+					RasterKernels.derivativeRGB(pixels, output, width, height, from, to);
+			}));
+		} else {
+			float[][] hsv = ProcessingMetrics.measure("decode", (long) width * height, () -> HSVConverter.toHSV(pixels, options));
+			ProcessingMetrics.measure("compute", outputPixels, () -> options.forEachBand(fromY, toY, (from, to) ->
+					RasterKernels.derivativeHSV(hsv, output, width, height, from, to)));
+		}
+	}
+	
+	public static PixelRaster slopeField(PixelRaster img, ImageSettings settings) {
+		return slopeField(img, settings, ExecutionOptions.DEFAULT);
+	}
+	public static PixelRaster slopeField(PixelRaster img, ImageSettings settings, ExecutionOptions options) {
+		int width = img.width();
+		int height = img.height();
+		return ProcessingMetrics.measure("slope field", (long) width * height, () -> {
+			PixelRaster output = new PixelRaster(SlopeField.getOutputSize(width, settings), SlopeField.getOutputSize(height, settings));
+			slopeField(img.pixels(), output.pixels(), width, height, 0, height, settings, options);
+			return output;
+		});
+	}
+	// The output only holds the arrows for rows fromY to toY, which are sampled starting from fromY
+	public static void slopeField(int[] pixels, int[] output, int width, int height, int fromY, int toY, ImageSettings settings, ExecutionOptions options) {
+		int samples = SlopeField.getSamples(toY - fromY, settings.slopeFieldStride());
+		ProcessingMetrics.measure("compute", (long) (toY - fromY) * width, () -> options.forEachBand(samples, (from, to) ->
+				SlopeField.render(pixels, output, width, height, fromY, toY, from, to, settings)));
+	}
+	
+	public static PixelRaster derivative2(PixelRaster img, ImageSettings settings) {
+		return derivative2(img, settings, ExecutionOptions.DEFAULT);
+	}
+	public static PixelRaster derivative2(PixelRaster img, ImageSettings settings, ExecutionOptions options) {
+		int width = img.width();
+		int height = img.height();
+		return ProcessingMetrics.measure("derivative2", (long) width * height, () -> {
+			PixelRaster output = new PixelRaster(width, height);
+			derivative2(img.pixels(), output.pixels(), width, height, width / 2, height / 2, 0, height, settings, options);
+			return output;
+		});
+	}
+	// Every band decodes a strip at a time with a row of halo on either side, so nothing image-sized is kept.
+	// That leaves the decoding and encoding inside of the compute stage.
+	public static void derivative2(int[] pixels, int[] output, int width, int height, int centerX, int centerY,
+			int fromY, int toY, ImageSettings settings, ExecutionOptions options) {
+		ProcessingMetrics.measure("compute", (long) (toY - fromY) * width, () -> options.forEachBand(fromY, toY, (from, to) -> {
+			int stripRows = Math.min(height, STRIP_HEIGHT + 2);
+			ChannelBuffer colors = new ChannelBuffer(width, stripRows);
+			ChannelBuffer newColors = new ChannelBuffer(width, stripRows);
+			for (int y = from; y < to; y += STRIP_HEIGHT) {
+				int top = Math.max(0, y - 1);
+				int bottom = Math.min(height, y + STRIP_HEIGHT + 1);
+				int stripFromY = y - top;
+				int stripToY = Math.min(to, y + STRIP_HEIGHT) - top;
+				colors.decode(pixels, top * width, settings.type(), 0, bottom - top);
+				for (int channel = 0; channel < ChannelBuffer.CHANNELS; channel++) {
+					int[] values = colors.getChannel(channel);
+					int[] newValues = newColors.getChannel(channel);
+					if (options.isVectorized())
+						VectorKernels.secondDifference(values, newValues, width, bottom - top, centerX, centerY - top, stripFromY, stripToY);
+					else
+						RasterKernels.secondDifference(values, newValues, width, bottom - top, centerX, centerY - top, stripFromY, stripToY);
+				}
+				newColors.encode(output, top * width, settings.type(), stripFromY, stripToY);
+			}
+		}));
+	}
+	
+	public static PixelRaster integrate(PixelRaster img, ImageSettings settings) {
+		return integrate(img, settings, ExecutionOptions.DEFAULT);
+	}
+	public static PixelRaster integrate(PixelRaster img, ImageSettings settings, ExecutionOptions options) {
+		int width = img.width();
+		int height = img.height();
+		return ProcessingMetrics.measure("integrate", (long) width * height, () -> {
+			PixelRaster output = new PixelRaster(width, height);
+			integrate(img.pixels(), output.pixels(), width, height, settings, options);
+			return output;
+		});
+	}
+	public static void integrate(int[] pixels, int[] output, int width, int height, ImageSettings settings, ExecutionOptions options) {
+		if (options.isOffHeap(width, height)) {
+			try {
+				integrateOffHeap(pixels, output, width, height, settings, options);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			return;
+		}
+		
+		long pixelCount = (long) width * height;
+		ChannelBuffer buffer = new ChannelBuffer(width, height);
+		ProcessingMetrics.measure("decode", pixelCount, () -> options.forEachBand(height, (fromY, toY) -> {
+			buffer.decode(pixels, settings.type(), fromY, toY);
+			toSigned(buffer, fromY * width, toY * width);
+		}));
+		
+		long[][] colors = ProcessingMetrics.measure("accumulate", pixelCount, () ->
+				PrefixSums.accumulateFromCenter(buffer, width / 2, height / 2, options));
+		
+		LongAccumulator minAccumulator = new LongAccumulator(Math::min, Long.MAX_VALUE);
+		LongAccumulator maxAccumulator = new LongAccumulator(Math::max, Long.MIN_VALUE);
+		if (settings.rescale()) {
+			ProcessingMetrics.measure("rescale", pixelCount, () -> options.forEachBand(height, (fromY, toY) -> {
+				long bandMin = Long.MAX_VALUE;
+				long bandMax = Long.MIN_VALUE;
+				for (long[] channel : colors) {
+					for (int i = fromY * width; i < toY * width; i++) {
+						long color = channel[i];
+						if (color < bandMin)
+							bandMin = color;
+						if (color > bandMax)
+							bandMax = color;
+					}
+				}
+				minAccumulator.accumulate(bandMin);
+				maxAccumulator.accumulate(bandMax);
+			}));
+		}
+		long min = minAccumulator.get();
+		long max = maxAccumulator.get();
+		
+		ProcessingMetrics.measure("encode", pixelCount, () -> options.forEachBand(height, (fromY, toY) -> {
+			for (int channel = 0; channel < ChannelBuffer.CHANNELS; channel++) {
+				int[] values = buffer.getChannel(channel);
+				for (int i = fromY * width; i < toY * width; i++)
+					values[i] = toIntegralValue(colors[channel][i], settings.rescale(), min, max);
+			}
+			buffer.encode(output, settings.type(), fromY, toY);
+		}));
+	}
+	
+	// The same as integrate, except that the sums are kept in an OffHeapRaster and handled a row at a time
+	private static void integrateOffHeap(int[] pixels, int[] output, int width, int height, ImageSettings settings, ExecutionOptions options) throws IOException {
+		try (OffHeapRaster raster = new OffHeapRaster(width, height)) {
+			OffHeapRaster.LongPlane[] colors = new OffHeapRaster.LongPlane[ChannelBuffer.CHANNELS];
+			for (int channel = 0; channel < colors.length; channel++)
+				colors[channel] = raster.createLongPlane();
+			
+			long pixelCount = (long) width * height;
+			ProcessingMetrics.measure("decode", pixelCount, () -> options.forEachBand(height, (fromY, toY) -> {
+				ChannelBuffer row = new ChannelBuffer(width, 1);
+				long[] sums = new long[width];
+				for (int y = fromY; y < toY; y++) {
+					row.decode(pixels, y * width, settings.type(), 0, 1);
+					toSigned(row, 0, width);
+					for (int channel = 0; channel < colors.length; channel++) {
+						PrefixSums.scanRow(row.getChannel(channel), 0, sums, 0, width, width / 2);
+						colors[channel].writeRow(y, 0, width, sums, 0);
+					}
+				}
+			}));
+			ProcessingMetrics.measure("accumulate", pixelCount, () ->
+					PrefixSums.accumulateFromCenter(colors, width, height, height / 2, options));
+			
+			LongAccumulator minAccumulator = new LongAccumulator(Math::min, Long.MAX_VALUE);
+			LongAccumulator maxAccumulator = new LongAccumulator(Math::max, Long.MIN_VALUE);
+			if (settings.rescale()) {
+				ProcessingMetrics.measure("rescale", pixelCount, () -> options.forEachBand(height, (fromY, toY) -> {
+					long[] sums = new long[width];
+					long bandMin = Long.MAX_VALUE;
+					long bandMax = Long.MIN_VALUE;
+					for (OffHeapRaster.LongPlane channel : colors) {
+						for (int y = fromY; y < toY; y++) {
+							channel.readRow(y, 0, width, sums, 0);
+							for (long color : sums) {
+								if (color < bandMin)
+									bandMin = color;
+								if (color > bandMax)
+									bandMax = color;
+							}
+						}
+					}
+					minAccumulator.accumulate(bandMin);
+					maxAccumulator.accumulate(bandMax);
+				}));
+			}
+			long min = minAccumulator.get();
+			long max = maxAccumulator.get();
+			
+			ProcessingMetrics.measure("encode", pixelCount, () -> options.forEachBand(height, (fromY, toY) -> {
+				ChannelBuffer row = new ChannelBuffer(width, 1);
+				long[] sums = new long[width];
+				for (int y = fromY; y < toY; y++) {
+					for (int channel = 0; channel < colors.length; channel++) {
+						int[] values = row.getChannel(channel);
+						colors[channel].readRow(y, 0, width, sums, 0);
+						for (int x = 0; x < width; x++)
+							values[x] = toIntegralValue(sums[x], settings.rescale(), min, max);
+					}
+					row.encode(output, y * width, settings.type(), 0, 1);
+				}
+			}));
+		}
+	}
+	
+	// Decodes the signed encoding that derivatives produce
+	public static void toSigned(ChannelBuffer buffer, int from, int to) {
+		for (int channel = 0; channel < ChannelBuffer.CHANNELS; channel++) {
+			int[] values = buffer.getChannel(channel);
+			for (int i = from; i < to; i++)
+				values[i] = (values[i] - 127) * 2;
+		}
+	}
+	public static int toIntegralValue(long sum, boolean rescale, long min, long max) {
+		long color = sum + 127;
+		if (rescale)
+			color = (color - min) * 255 / (max - min);
+		return (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, color));
+	}
+	
+	// Averages every factor by factor block, rounding, and repeating the last row and column where the size isn't a multiple
+	public static PixelRaster downsample(PixelRaster img, int factor, ExecutionOptions options) {
+		if (factor < 1)
+			throw new IllegalArgumentException("The factor must be at least 1: " + factor);
+		int width = img.width();
+		int height = img.height();
+		int outputWidth = (width + factor - 1) / factor;
+		int outputHeight = (height + factor - 1) / factor;
+		int[] pixels = img.pixels();
+		PixelRaster output = new PixelRaster(outputWidth, outputHeight);
+		int[] outputPixels = output.pixels();
+		int area = factor * factor;
+		options.forEachBand(outputHeight, (fromY, toY) -> {
+			for (int y = fromY; y < toY; y++) {
+				for (int x = 0; x < outputWidth; x++) {
+					int alpha = 0;
+					int red = 0;
+					int green = 0;
+					int blue = 0;
+					for (int blockY = 0; blockY < factor; blockY++) {
+						int row = Math.min(y * factor + blockY, height - 1) * width;
+						for (int blockX = 0; blockX < factor; blockX++) {
+							int argb = pixels[row + Math.min(x * factor + blockX, width - 1)];
+							alpha += argb >>> 24;
+							red += (argb >>> 16) & 0xFF;
+							green += (argb >>> 8) & 0xFF;
+							blue += argb & 0xFF;
+						}
+					}
+					outputPixels[y * outputWidth + x] = ((alpha + area / 2) / area) << 24
+							| ((red + area / 2) / area) << 16
+							| ((green + area / 2) / area) << 8
+							| ((blue + area / 2) / area);
+				}
+			}
+		});
+		return output;
+	}
+	
+	public static PixelRaster addImages(PixelRaster imgA, PixelRaster imgB, ImageSettings settings) {
+		return addImages(imgA, imgB, settings, ExecutionOptions.DEFAULT);
+	}
+	public static PixelRaster addImages(PixelRaster imgA, PixelRaster imgB, ImageSettings settings, ExecutionOptions options) {
+		int width = Math.min(imgA.width(), imgB.width());
+		int height = Math.min(imgA.height(), imgB.height());
+		return ProcessingMetrics.measure("add", (long) width * height, () -> {
+			int[] pixelsA = imgA.pixels();
+			int[] pixelsB = imgB.pixels();
+			PixelRaster output = new PixelRaster(width, height);
+			int[] outputPixels = output.pixels();
+			int widthA = imgA.width();
+			int widthB = imgB.width();
+			ProcessingMetrics.measure("compute", (long) width * height, () -> options.forEachBand(height, (fromY, toY) -> {
+				if (settings.type() == Color.Type.HSV)
+					RasterKernels.addHSV(pixelsA, widthA, pixelsB, widthB, outputPixels, width, fromY, toY);
+				else if (options.isVectorized())
+					VectorKernels.addRGB(pixelsA, widthA, pixelsB, widthB, outputPixels, width, fromY, toY);
+				else
+					RasterKernels.addRGB(pixelsA, widthA, pixelsB, widthB, outputPixels, width, fromY, toY);
+			}));
+			return output;
+		});
+	}
+	
+	// Slope fields are drawn, so they only come from 8-bit images
+	public static SignedRaster process(SignedRaster img, ImageSettings settings, ExecutionOptions options) {
+		if (settings.integral())
+			return integrate(img, settings, options);
+		if (settings.derivative2())
+			return derivative2(img, options);
+		if (settings.slopeField())
+			throw new IllegalArgumentException("Slope fields can't be drawn from signed rasters");
+		return derivative(img, options);
+	}
+	
+	// Evaluates a Pipeline expression on SignedRasters, so only the result is rounded to 8 bits
+	public static SignedRaster evaluate(String expression, SignedRaster source, ImageSettings settings, ExecutionOptions options) {
+		return Pipeline.parse(expression, source, new Pipeline.Operations<>() {
+			@Override
+			public SignedRaster derivative(SignedRaster input) {
+				return Processor.derivative(input, options);
+			}
+			@Override
+			public SignedRaster derivative2(SignedRaster input) {
+				return Processor.derivative2(input, options);
+			}
+			@Override
+			public SignedRaster integrate(SignedRaster input) {
+				return Processor.integrate(input, settings, options);
+			}
+			@Override
+			public SignedRaster add(SignedRaster inputA, SignedRaster inputB) {
+				return Processor.addImages(inputA, inputB, options);
+			}
+			@Override
+			public SignedRaster filter(SignedRaster input, Stencil stencil) {
+				return Processor.filter(input, stencil, options);
+			}
+		});
+	}
+	
+	// The same operations on SignedRasters, which follow the 8-bit ones without rounding in between,
+	// so integrate(derivative2(img)) gives back img exactly
+	public static SignedRaster derivative(SignedRaster img, ExecutionOptions options) {
+		int width = img.width();
+		int height = img.height();
+		float scale = img.getEncodedScale();
+		return ProcessingMetrics.measure("derivative", img.getPixelCount(), () -> {
+			SignedRaster output = new SignedRaster(width, height, true);
+			ProcessingMetrics.measure("compute", img.getPixelCount(), () -> options.forEachBand(height, (fromY, toY) -> {
+				for (int channel = 0; channel < ChannelBuffer.CHANNELS; channel++)
+					derivative(img.channels()[channel], output.channels()[channel], width, height, 0, height, scale, fromY, toY);
+			}));
+			return output;
+		});
+	}
+	// Rows fromY to toY of a window of the image, which holds its rows from top on
+	private static void derivative(float[] input, float[] output, int width, int rows, int top, int height, float scale, int fromY, int toY) {
+		Stencil.LAPLACIAN.apply(input, output, width, rows, fromY, toY);
+		// The repeated edge pixels add nothing to the sum, so the edges just average fewer slopes
+		for (int y = fromY; y < toY; y++) {
+			for (int x = 0; x < width; x++) {
+				int num = 4 - (x == 0 ? 1 : 0) - (x == width - 1 ? 1 : 0) - (top + y == 0 ? 1 : 0) - (top + y == height - 1 ? 1 : 0);
+				output[y * width + x] *= -scale / num;
+			}
+		}
+	}
+	
+	public static SignedRaster derivative2(SignedRaster img, ExecutionOptions options) {
+		int width = img.width();
+		int height = img.height();
+		return ProcessingMetrics.measure("derivative2", img.getPixelCount(), () -> {
+			SignedRaster output = new SignedRaster(width, height, true);
+			ProcessingMetrics.measure("compute", img.getPixelCount(), () -> options.forEachBand(height, (fromY, toY) -> {
+				for (int channel = 0; channel < ChannelBuffer.CHANNELS; channel++) {
+					derivative2(img.channels()[channel], output.channels()[channel], width, height, height / 2,
+							img.getEncodedScale(), img.getEncodedOffset(), fromY, toY);
+				}
+			}));
+			return output;
+		});
+	}
+	// The center row is counted from the top of the window
+	private static void derivative2(float[] input, float[] output, int width, int rows, int centerY, float scale, float offset, int fromY, int toY) {
+		Stencil.MIXED_DIFFERENCE.applyTowards(input, output, width, rows, width / 2, centerY, fromY, toY);
+		for (int i = fromY * width; i < toY * width; i++)
+			output[i] *= scale;
+		// The center has nothing to take the difference from, so it keeps its value
+		if (centerY >= fromY && centerY < toY)
+			output[centerY * width + width / 2] += offset - 127;
+	}
+	
+	// Reads the input like the derivatives do, and is signed
+	public static SignedRaster filter(SignedRaster img, Stencil stencil, ExecutionOptions options) {
+		int width = img.width();
+		int height = img.height();
+		float scale = img.getEncodedScale();
+		float offset = img.getEncodedOffset() * stencil.getWeightSum();
+		return ProcessingMetrics.measure("filter", img.getPixelCount(), () -> {
+			SignedRaster output = new SignedRaster(width, height, true);
+			ProcessingMetrics.measure("compute", img.getPixelCount(), () -> options.forEachBand(height, (fromY, toY) -> {
+				for (int channel = 0; channel < ChannelBuffer.CHANNELS; channel++)
+					filter(stencil, img.channels()[channel], output.channels()[channel], width, height, scale, offset, fromY, toY);
+			}));
+			return output;
+		});
+	}
+	private static void filter(Stencil stencil, float[] input, float[] output, int width, int rows, float scale, float offset, int fromY, int toY) {
+		stencil.apply(input, output, width, rows, fromY, toY);
+		for (int i = fromY * width; i < toY * width; i++)
+			output[i] = output[i] * scale + offset;
+	}
+	public static PixelRaster filter(PixelRaster img, Stencil stencil, ImageSettings settings, ExecutionOptions options) {
+		long pixelCount = img.getPixelCount();
+		return ProcessingMetrics.measure("filter", pixelCount, () -> {
+			SignedRaster raster = ProcessingMetrics.measure("decode", pixelCount, () -> SignedRaster.decode(img, settings.type(), options));
+			SignedRaster output = filter(raster, stencil, options);
+			return ProcessingMetrics.measure("encode", pixelCount, () -> output.encode(settings.type(), options));
+		});
+	}
+	
+	public static SignedRaster integrate(SignedRaster img, ImageSettings settings, ExecutionOptions options) {
+		int width = img.width();
+		int height = img.height();
+		long pixelCount = img.getPixelCount();
+		return ProcessingMetrics.measure("integrate", pixelCount, () -> {
+			double[][] colors = ProcessingMetrics.measure("accumulate", pixelCount, () -> PrefixSums.accumulateFromCenter(
+					img.channels(), img.getSignedScale(), img.getSignedOffset(), width, height, width / 2, height / 2, options));
+			
+			DoubleAccumulator minAccumulator = new DoubleAccumulator(Math::min, Double.POSITIVE_INFINITY);
+			DoubleAccumulator maxAccumulator = new DoubleAccumulator(Math::max, Double.NEGATIVE_INFINITY);
+			if (settings.rescale()) {
+				ProcessingMetrics.measure("rescale", pixelCount, () -> options.forEachBand(height, (fromY, toY) -> {
+					double bandMin = Double.POSITIVE_INFINITY;
+					double bandMax = Double.NEGATIVE_INFINITY;
+					for (double[] channel : colors) {
+						for (int i = fromY * width; i < toY * width; i++) {
+							bandMin = Math.min(bandMin, channel[i]);
+							bandMax = Math.max(bandMax, channel[i]);
+						}
+					}
+					minAccumulator.accumulate(bandMin);
+					maxAccumulator.accumulate(bandMax);
+				}));
+			}
+			double min = minAccumulator.get();
+			double max = maxAccumulator.get();
+			
+			SignedRaster output = new SignedRaster(width, height, false);
+			options.forEachBand(height, (fromY, toY) -> {
+				for (int channel = 0; channel < ChannelBuffer.CHANNELS; channel++) {
+					for (int i = fromY * width; i < toY * width; i++)
+						output.channels()[channel][i] = toIntegralValue(colors[channel][i], settings.rescale(), min, max);
+				}
+			});
+			return output;
+		});
+	}
+	private static float toIntegralValue(double sum, boolean rescale, double min, double max) {
+		double color = sum + 127;
+		if (rescale)
+			color = (color - min) * 255 / (max - min);
+		return (float) color;
+	}
+	
+	// Like the 8-bit version, b is read as slopes, and the sum isn't signed
+	public static SignedRaster addImages(SignedRaster imgA, SignedRaster imgB, ExecutionOptions options) {
+		int width = Math.min(imgA.width(), imgB.width());
+		int height = Math.min(imgA.height(), imgB.height());
+		long pixelCount = (long) width * height;
+		return ProcessingMetrics.measure("add", pixelCount, () -> {
+			SignedRaster output = new SignedRaster(width, height, false);
+			ProcessingMetrics.measure("compute", pixelCount, () -> options.forEachBand(height, (fromY, toY) -> {
+				for (int channel = 0; channel < ChannelBuffer.CHANNELS; channel++) {
+					RasterKernels.add(imgA.channels()[channel], imgA.width(), imgA.getEncodedScale(), imgA.getEncodedOffset(),
+							imgB.channels()[channel], imgB.width(), imgB.getSignedScale(), imgB.getSignedOffset(),
+							output.channels()[channel], width, fromY, toY);
+				}
+			}));
+			return output;
+		});
+	}
+	
+	// The same operations again, on MappedRasters, which are read and written a block of rows at a time like
+	// integrateOffHeap does, so neither the input nor the output has to fit in the heap. Every output is a scratch
+	// MappedRaster for the caller to close, and holds what the SignedRaster version would have.
+	public static MappedRaster process(MappedRaster img, ImageSettings settings, ExecutionOptions options) throws IOException {
+		if (settings.integral())
+			return integrate(img, settings, options);
+		if (settings.derivative2())
+			return derivative2(img, options);
+		if (settings.slopeField())
+			throw new IllegalArgumentException("Slope fields can't be drawn from signed rasters");
+		return derivative(img, options);
+	}
+	
+	// The intermediate results are closed once the result is done
+	public static MappedRaster evaluate(String expression, MappedRaster source, ImageSettings settings, ExecutionOptions options) throws IOException {
+		List<MappedRaster> outputs = new ArrayList<>();
+		try {
+			MappedRaster result = Pipeline.parse(expression, source, new Pipeline.Operations<>() {
+				@Override
+				public MappedRaster derivative(MappedRaster input) {
+					return keep(outputs, () -> Processor.derivative(input, options));
+				}
+				@Override
+				public MappedRaster derivative2(MappedRaster input) {
+					return keep(outputs, () -> Processor.derivative2(input, options));
+				}
+				@Override
+				public MappedRaster integrate(MappedRaster input) {
+					return keep(outputs, () -> Processor.integrate(input, settings, options));
+				}
+				@Override
+				public MappedRaster add(MappedRaster inputA, MappedRaster inputB) {
+					return keep(outputs, () -> Processor.addImages(inputA, inputB, options));
+				}
+				@Override
+				public MappedRaster filter(MappedRaster input, Stencil stencil) {
+					return keep(outputs, () -> Processor.filter(input, stencil, options));
+				}
+			});
+			outputs.remove(result);
+			return result;
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		} finally {
+			for (MappedRaster output : outputs)
+				output.close();
+		}
+	}
+	private interface MappedOperation {
+		public MappedRaster apply() throws IOException;
+	}
+	private static MappedRaster keep(List<MappedRaster> outputs, MappedOperation operation) {
+		try {
+			MappedRaster output = operation.apply();
+			outputs.add(output);
+			return output;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+	
+	public static MappedRaster derivative(MappedRaster img, ExecutionOptions options) throws IOException {
+		int height = img.getHeight();
+		float scale = img.getEncodedScale();
+		return forEachWindow("derivative", img, Stencil.LAPLACIAN.getTopHalo(), Stencil.LAPLACIAN.getBottomHalo(), options,
+				(input, output, width, rows, top, fromY, toY) -> derivative(input, output, width, rows, top, height, scale, fromY, toY));
+	}
+	
+	public static MappedRaster derivative2(MappedRaster img, ExecutionOptions options) throws IOException {
+		int halo = Stencil.MIXED_DIFFERENCE.getTopHalo() + Stencil.MIXED_DIFFERENCE.getBottomHalo(); // It reads toward the center
+		int centerY = img.getHeight() / 2;
+		return forEachWindow("derivative2", img, halo, halo, options, (input, output, width, rows, top, fromY, toY) ->
+				derivative2(input, output, width, rows, centerY - top, img.getEncodedScale(), img.getEncodedOffset(), fromY, toY));
+	}
+	
+	public static MappedRaster filter(MappedRaster img, Stencil stencil, ExecutionOptions options) throws IOException {
+		float scale = img.getEncodedScale();
+		float offset = img.getEncodedOffset() * stencil.getWeightSum();
+		return forEachWindow("filter", img, stencil.getTopHalo(), stencil.getBottomHalo(), options,
+				(input, output, width, rows, top, fromY, toY) -> filter(stencil, input, output, width, rows, scale, offset, fromY, toY));
+	}
+	
+	private interface WindowKernel {
+		// Writes rows fromY to toY of a window of the image, which holds its rows from top on
+		public void apply(float[] input, float[] output, int width, int rows, int top, int fromY, int toY);
+	}
+	// Reads the rows around every block as well, so the stencils only repeat the edges of the image
+	private static MappedRaster forEachWindow(String name, MappedRaster img, int topHalo, int bottomHalo, ExecutionOptions options, WindowKernel kernel) throws IOException {
+		int width = img.getWidth();
+		int height = img.getHeight();
+		int blockRows = MappedRaster.getBlockRows(width);
+		MappedRaster output = MappedRaster.create(width, height, true, img.getType());
+		try {
+			ProcessingMetrics.measure(name, img.getPixelCount(), () -> options.forEachBand(height, (fromY, toY) -> {
+				float[] input = new float[(Math.min(toY - fromY, blockRows) + topHalo + bottomHalo) * width];
+				float[] values = new float[input.length];
+				for (int blockY = fromY; blockY < toY; blockY += blockRows) {
+					int blockToY = Math.min(toY, blockY + blockRows);
+					int top = Math.max(0, blockY - topHalo);
+					int bottom = Math.min(height, blockToY + bottomHalo);
+					for (int channel = 0; channel < ChannelBuffer.CHANNELS; channel++) {
+						img.readRows(channel, top, bottom, input, 0);
+						kernel.apply(input, values, width, bottom - top, top, blockY - top, blockToY - top);
+						output.writeRows(channel, blockY, blockToY, values, (blockY - top) * width);
+					}
+				}
+			}));
+		} catch (RuntimeException | Error e) {
+			output.close();
+			throw e;
+		}
+		return output;
+	}
+	
+	// The same as integrate, with the sums in an OffHeapRaster
+	public static MappedRaster integrate(MappedRaster img, ImageSettings settings, ExecutionOptions options) throws IOException {
+		int width = img.getWidth();
+		int height = img.getHeight();
+		int blockRows = MappedRaster.getBlockRows(width);
+		long pixelCount = img.getPixelCount();
+		return ProcessingMetrics.measure("integrate", pixelCount, () -> {
+			try (OffHeapRaster raster = new OffHeapRaster(width, height)) {
+				OffHeapRaster.DoublePlane[] colors = new OffHeapRaster.DoublePlane[ChannelBuffer.CHANNELS];
+				for (int channel = 0; channel < colors.length; channel++)
+					colors[channel] = raster.createDoublePlane();
+				
+				ProcessingMetrics.measure("accumulate", pixelCount, () -> {
+					options.forEachBand(height, (fromY, toY) -> {
+						float[] values = new float[width];
+						double[] sums = new double[width];
+						for (int y = fromY; y < toY; y++) {
+							for (int channel = 0; channel < colors.length; channel++) {
+								img.readRows(channel, y, y + 1, values, 0);
+								PrefixSums.scanRow(values, img.getSignedScale(), img.getSignedOffset(), 0, sums, width, width / 2);
+								colors[channel].writeRow(y, 0, width, sums, 0);
+							}
+						}
+					});
+					PrefixSums.accumulateFromCenter(colors, width, height, height / 2, options);
+				});
+				
+				DoubleAccumulator minAccumulator = new DoubleAccumulator(Math::min, Double.POSITIVE_INFINITY);
+				DoubleAccumulator maxAccumulator = new DoubleAccumulator(Math::max, Double.NEGATIVE_INFINITY);
+				if (settings.rescale()) {
+					ProcessingMetrics.measure("rescale", pixelCount, () -> options.forEachBand(height, (fromY, toY) -> {
+						double[] sums = new double[width];
+						double bandMin = Double.POSITIVE_INFINITY;
+						double bandMax = Double.NEGATIVE_INFINITY;
+						for (OffHeapRaster.DoublePlane channel : colors) {
+							for (int y = fromY; y < toY; y++) {
+								channel.readRow(y, 0, width, sums, 0);
+								for (double color : sums) {
+									bandMin = Math.min(bandMin, color);
+									bandMax = Math.max(bandMax, color);
+								}
+							}
+						}
+						minAccumulator.accumulate(bandMin);
+						maxAccumulator.accumulate(bandMax);
+					}));
+				}
+				double min = minAccumulator.get();
+				double max = maxAccumulator.get();
+				
+				MappedRaster output = MappedRaster.create(width, height, false, img.getType());
+				try {
+					options.forEachBand(height, (fromY, toY) -> {
+						double[] sums = new double[width];
+						float[] values = new float[Math.min(toY - fromY, blockRows) * width];
+						for (int blockY = fromY; blockY < toY; blockY += blockRows) {
+							int blockToY = Math.min(toY, blockY + blockRows);
+							for (int channel = 0; channel < colors.length; channel++) {
+								for (int y = blockY; y < blockToY; y++) {
+									colors[channel].readRow(y, 0, width, sums, 0);
+									for (int x = 0; x < width; x++)
+										values[(y - blockY) * width + x] = toIntegralValue(sums[x], settings.rescale(), min, max);
+								}
+								output.writeRows(channel, blockY, blockToY, values, 0);
+							}
+						}
+					});
+				} catch (RuntimeException | Error e) {
+					output.close();
+					throw e;
+				}
+				return output;
+			}
+		});
+	}
+	
+	public static MappedRaster addImages(MappedRaster imgA, MappedRaster imgB, ExecutionOptions options) throws IOException {
+		int width = Math.min(imgA.getWidth(), imgB.getWidth());
+		int height = Math.min(imgA.getHeight(), imgB.getHeight());
+		int blockRows = MappedRaster.getBlockRows(Math.max(imgA.getWidth(), imgB.getWidth()));
+		long pixelCount = (long) width * height;
+		MappedRaster output = MappedRaster.create(width, height, false, imgA.getType());
+		try {
+			ProcessingMetrics.measure("add", pixelCount, () -> options.forEachBand(height, (fromY, toY) -> {
+				int rows = Math.min(toY - fromY, blockRows);
+				float[] inputA = new float[rows * imgA.getWidth()];
+				float[] inputB = new float[rows * imgB.getWidth()];
+				float[] values = new float[rows * width];
+				for (int blockY = fromY; blockY < toY; blockY += blockRows) {
+					int blockToY = Math.min(toY, blockY + blockRows);
+					for (int channel = 0; channel < ChannelBuffer.CHANNELS; channel++) {
+						imgA.readRows(channel, blockY, blockToY, inputA, 0);
+						imgB.readRows(channel, blockY, blockToY, inputB, 0);
+						RasterKernels.add(inputA, imgA.getWidth(), imgA.getEncodedScale(), imgA.getEncodedOffset(),
+								inputB, imgB.getWidth(), imgB.getSignedScale(), imgB.getSignedOffset(),
+								values, width, 0, blockToY - blockY);
+						output.writeRows(channel, blockY, blockToY, values, 0);
+					}
+				}
+			}));
+		} catch (RuntimeException | Error e) {
+			output.close();
+			throw e;
+		}
+		return output;
+	}
+	
+}
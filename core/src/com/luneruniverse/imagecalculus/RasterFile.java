@@ -0,0 +1,87 @@
+package com.luneruniverse.imagecalculus;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// A SignedRaster saved as it is, so intermediate results skip the image codecs. The file is a header followed
+// by the channels as planes of little-endian floats, which are mapped rather than read and decoded. Rasters too
+// large for the heap are mapped as a MappedRaster instead of read.
+public record RasterFile(SignedRaster raster, Color.Type type) {
+	
+	public static final String EXTENSION = "icr";
+	
+	private static final int MAGIC = 0x31524349; // ICR1
+	private static final int HEADER_BYTES = 32;
+	
+	public static boolean isRasterFile(Path file) {
+		return file.getFileName().toString().toLowerCase().endsWith("." + EXTENSION);
+	}
+	
+	// Copies the planes into the heap, which map doesn't
+	public static RasterFile read(Path file, ExecutionOptions options) throws IOException {
+		try (MappedRaster mapped = map(file)) {
+			int width = mapped.getWidth();
+			SignedRaster raster = new SignedRaster(width, mapped.getHeight(), mapped.isSigned());
+			options.forEachBand(raster.height(), (fromY, toY) -> {
+				for (int channel = 0; channel < ChannelBuffer.CHANNELS; channel++)
+					mapped.readRows(channel, fromY, toY, raster.channels()[channel], fromY * width);
+			});
+			return new RasterFile(raster, mapped.getType());
+		}
+	}
+	
+	public static MappedRaster map(Path file) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+		long fileSize;
+		try (FileChannel channel = FileChannel.open(file)) {
+			fileSize = channel.size();
+			while (header.hasRemaining()) {
+				if (channel.read(header) == -1)
+					throw new IOException("Not a raster file: " + file);
+			}
+		}
+		header.flip();
+		if (header.getInt() != MAGIC)
+			throw new IOException("Not a raster file: " + file);
+		int width = header.getInt();
+		int height = header.getInt();
+		int channels = header.getInt();
+		int type = header.get();
+		boolean signed = header.get() != 0;
+		if (width < 1 || height < 1 || channels != ChannelBuffer.CHANNELS || type < 0 || type >= Color.Type.values().length)
+			throw new IOException("Unsupported raster file: " + file);
+		if (fileSize < HEADER_BYTES + (long) width * height * channels * Float.BYTES)
+			throw new IOException("Truncated raster file: " + file);
+		return new MappedRaster(new OffHeapRaster(width, height, file, HEADER_BYTES, false), signed, Color.Type.values()[type]);
+	}
+	
+	// Writes the header and maps the planes after it, so the raster can be written a block at a time
+	public static MappedRaster create(Path file, int width, int height, boolean signed, Color.Type type) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+		header.putInt(MAGIC);
+		header.putInt(width);
+		header.putInt(height);
+		header.putInt(ChannelBuffer.CHANNELS);
+		header.put((byte) type.ordinal());
+		header.put((byte) (signed ? 1 : 0));
+		Files.write(file, header.array(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+		return new MappedRaster(new OffHeapRaster(width, height, file, HEADER_BYTES, true), signed, type);
+	}
+	
+	public void write(Path file, ExecutionOptions options) throws IOException {
+		int width = raster.width();
+		try (MappedRaster mapped = create(file, width, raster.height(), raster.signed(), type)) {
+			options.forEachBand(raster.height(), (fromY, toY) -> {
+				for (int channel = 0; channel < ChannelBuffer.CHANNELS; channel++)
+					mapped.writeRows(channel, fromY, toY, raster.channels()[channel], fromY * width);
+			});
+		}
+	}
+	
+	
+}
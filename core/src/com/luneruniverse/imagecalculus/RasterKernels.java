@@ -0,0 +1,150 @@
+package com.luneruniverse.imagecalculus;
+
+public class RasterKernels {
+	
+	public static void derivativeRGB(int[] input, int[] output, int width, int height, int fromY, int toY) {
+		for (int y = fromY; y < toY; y++)
+			derivativeRGBRow(input, output, width, height, y, 0, width);
+	}
+	public static void derivativeRGBRow(int[] input, int[] output, int width, int height, int y, int fromX, int toX) {
+		for (int x = fromX; x < toX; x++) {
+			int i = y * width + x;
+			int color = input[i];
+			int red = 0;
+			int green = 0;
+			int blue = 0;
+			int num = 0;
+			if (x > 0) {
+				int slope = Color.slopeRGB(color, input[i - 1]);
+				red += Color.red(slope);
+				green += Color.green(slope);
+				blue += Color.blue(slope);
+				num++;
+			}
+			if (y > 0) {
+				int slope = Color.slopeRGB(color, input[i - width]);
+				red += Color.red(slope);
+				green += Color.green(slope);
+				blue += Color.blue(slope);
+				num++;
+			}
+			if (x < width - 1) {
+				int slope = Color.slopeRGB(color, input[i + 1]);
+				red += Color.red(slope);
+				green += Color.green(slope);
+				blue += Color.blue(slope);
+				num++;
+			}
+			if (y < height - 1) {
+				int slope = Color.slopeRGB(color, input[i + width]);
+				red += Color.red(slope);
+				green += Color.green(slope);
+				blue += Color.blue(slope);
+				num++;
+			}
+			output[i] = 0xFF000000 | Color.packRGB(red / num, green / num, blue / num);
+		}
+	}
+	
+	// Mirrors Color.slopeHSV followed by Color.fromAverageHSV, including the round trip
+	// of every slope through a packed RGB color, so the output matches bit for bit
+	public static void derivativeHSV(float[][] input, int[] output, int width, int height, int fromY, int toY) {
+		float[] hue = input[0];
+		float[] saturation = input[1];
+		float[] value = input[2];
+		float[] hsv = new float[3];
+		float[] slope = new float[3];
+		for (int y = fromY; y < toY; y++) {
+			for (int x = 0; x < width; x++) {
+				int i = y * width + x;
+				hsv[0] = hue[i];
+				hsv[1] = saturation[i];
+				hsv[2] = value[i];
+				float hueSum = 0;
+				float saturationSum = 0;
+				float valueSum = 0;
+				int num = 0;
+				if (x > 0) {
+					slopeHSV(hsv, hue[i - 1], saturation[i - 1], value[i - 1], slope);
+					hueSum += slope[0];
+					saturationSum += slope[1];
+					valueSum += slope[2];
+					num++;
+				}
+				if (y > 0) {
+					slopeHSV(hsv, hue[i - width], saturation[i - width], value[i - width], slope);
+					hueSum += slope[0];
+					saturationSum += slope[1];
+					valueSum += slope[2];
+					num++;
+				}
+				if (x < width - 1) {
+					slopeHSV(hsv, hue[i + 1], saturation[i + 1], value[i + 1], slope);
+					hueSum += slope[0];
+					saturationSum += slope[1];
+					valueSum += slope[2];
+					num++;
+				}
+				if (y < height - 1) {
+					slopeHSV(hsv, hue[i + width], saturation[i + width], value[i + width], slope);
+					hueSum += slope[0];
+					saturationSum += slope[1];
+					valueSum += slope[2];
+					num++;
+				}
+				output[i] = 0xFF000000 | Color.packHSV(hueSum / num, saturationSum / num, valueSum / num);
+			}
+		}
+	}
+	private static void slopeHSV(float[] hsv, float hue, float saturation, float value, float[] slope) {
+		Color.toHSV(Color.packHSV(
+				(hsv[0] - hue) / 2 + 0.5F,
+				(hsv[1] - saturation) / 2 + 0.5F,
+				(hsv[2] - value) / 2 + 0.5F), slope);
+	}
+	
+	
+	// The mixed difference of the precise derivative2, with the center compared to 127 instead and the result
+	// halved toward zero
+	public static void secondDifference(int[] values, int[] newValues, int width, int height, int centerX, int centerY, int fromY, int toY) {
+		Stencil.MIXED_DIFFERENCE.applyTowards(values, newValues, width, height, centerX, centerY, fromY, toY, false);
+		if (centerY >= fromY && centerY < toY)
+			newValues[centerY * width + centerX] -= 127;
+		for (int i = fromY * width; i < toY * width; i++)
+			newValues[i] = newValues[i] / 2 + 127;
+	}
+	
+	public static void addRGB(int[] inputA, int widthA, int[] inputB, int widthB, int[] output, int width, int fromY, int toY) {
+		for (int y = fromY; y < toY; y++)
+			addRGBRow(inputA, widthA, inputB, widthB, output, width, y, 0, width);
+	}
+	public static void addRGBRow(int[] inputA, int widthA, int[] inputB, int widthB, int[] output, int width, int y, int fromX, int toX) {
+		for (int x = fromX; x < toX; x++)
+			output[y * width + x] = 0xFF000000 | Color.addRGB(inputA[y * widthA + x], inputB[y * widthB + x]);
+	}
+	
+	public static void addHSV(int[] inputA, int widthA, int[] inputB, int widthB, int[] output, int width, int fromY, int toY) {
+		float[] hsv = new float[3];
+		float[] hsvOther = new float[3];
+		for (int y = fromY; y < toY; y++) {
+			for (int x = 0; x < width; x++) {
+				Color.toHSV(inputA[y * widthA + x], hsv);
+				Color.toHSV(inputB[y * widthB + x], hsvOther);
+				output[y * width + x] = 0xFF000000 | Color.packHSV(
+						hsv[0] + hsvOther[0] * 2 - 1,
+						hsv[1] + hsvOther[1] * 2 - 1,
+						hsv[2] + hsvOther[2] * 2 - 1);
+			}
+		}
+	}
+	
+	// Reads every value as value * scale + offset (see SignedRaster), without clamping
+	public static void add(float[] inputA, int widthA, float scaleA, float offsetA, float[] inputB, int widthB, float scaleB, float offsetB,
+			float[] output, int width, int fromY, int toY) {
+		for (int y = fromY; y < toY; y++) {
+			for (int x = 0; x < width; x++)
+				output[y * width + x] = inputA[y * widthA + x] * scaleA + offsetA + inputB[y * widthB + x] * scaleB + offsetB;
+		}
+	}
+	
+}
@@ -0,0 +1,128 @@
+package com.luneruniverse.imagecalculus;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Remembers processed images by the content of their input and the settings they were processed with,
+// evicting the least recently used ones once the outputs take up more than the budget
+public class ResultCache {
+	
+	public record Key(long hash, int width, int height, ImageSettings settings) {}
+	
+	
+	private final long maxBytes;
+	private final LinkedHashMap<Key, PixelRaster> results;
+	private long bytes;
+	private long hits;
+	private long misses;
+	
+	public ResultCache(long maxBytes) {
+		this.maxBytes = maxBytes;
+		this.results = new LinkedHashMap<>(16, 0.75F, true);
+	}
+	
+	// Hashes the whole image, so a key that is looked up and then processed should be reused
+	public static Key getKey(PixelRaster img, ImageSettings settings) {
+		return new Key(hash(img.pixels()), img.width(), img.height(), normalize(settings));
+	}
+	// Keeps only the fields that Processor.process reads in the chosen mode, so settings that give the same
+	// result share an entry
+	static ImageSettings normalize(ImageSettings settings) {
+		if (settings.integral())
+			return new ImageSettings(settings.type(), true, false, false, false, settings.rescale());
+		if (settings.derivative2())
+			return new ImageSettings(settings.type(), false, true, false, false, false);
+		if (settings.slopeField()) {
+			return new ImageSettings(settings.type(), false, false, true, settings.slopeFieldMagnitude(), false,
+					settings.slopeFieldStride(), settings.slopeFieldCellSize());
+		}
+		return new ImageSettings(settings.type(), false, false, false, false, false);
+	}
+	
+	public PixelRaster process(PixelRaster img, ImageSettings settings, ExecutionOptions options) {
+		return process(getKey(img, settings), img, options);
+	}
+	// The key has to be the one of this image
+	public PixelRaster process(Key key, PixelRaster img, ExecutionOptions options) {
+		synchronized (this) {
+			PixelRaster output = get(key);
+			if (output != null)
+				return output;
+			misses++;
+		}
+		// Processed outside of the lock, so one large image doesn't hold up the others
+		PixelRaster output = Processor.process(img, key.settings(), options);
+		put(key, output);
+		return output;
+	}
+	// Returns null if the result isn't cached, without processing anything
+	public PixelRaster get(PixelRaster img, ImageSettings settings) {
+		return get(getKey(img, settings));
+	}
+	public synchronized PixelRaster get(Key key) {
+		PixelRaster output = results.get(key);
+		if (output != null)
+			hits++;
+		return output;
+	}
+	private synchronized void put(Key key, PixelRaster output) {
+		long outputBytes = getBytes(output);
+		if (outputBytes > maxBytes)
+			return;
+		PixelRaster old = results.put(key, output);
+		if (old != null)
+			bytes -= getBytes(old);
+		bytes += outputBytes;
+		Iterator<Map.Entry<Key, PixelRaster>> entries = results.entrySet().iterator();
+		while (bytes > maxBytes) {
+			bytes -= getBytes(entries.next().getValue());
+			entries.remove();
+		}
+	}
+	
+	public synchronized void clear() {
+		results.clear();
+		bytes = 0;
+	}
+	
+	public synchronized long getHits() {
+		return hits;
+	}
+	public synchronized long getMisses() {
+		return misses;
+	}
+	public synchronized long getBytes() {
+		return bytes;
+	}
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+	
+	private static long getBytes(PixelRaster img) {
+		return img.getPixelCount() * Integer.BYTES;
+	}
+	
+	// 64 bit FNV-1a over whole pixels, in four interleaved lanes so the multiplies don't wait on each other,
+	// with a final mix so that similar images spread out
+	private static long hash(int[] pixels) {
+		long[] lanes = { 0xCBF29CE484222325L, 0x84222325CBF29CE4L, 0x9CE484222325CBF2L, 0x2325CBF29CE48422L };
+		int i = 0;
+		for (; i + 4 <= pixels.length; i += 4) {
+			lanes[0] = (lanes[0] ^ pixels[i]) * 0x100000001B3L;
+			lanes[1] = (lanes[1] ^ pixels[i + 1]) * 0x100000001B3L;
+			lanes[2] = (lanes[2] ^ pixels[i + 2]) * 0x100000001B3L;
+			lanes[3] = (lanes[3] ^ pixels[i + 3]) * 0x100000001B3L;
+		}
+		for (; i < pixels.length; i++)
+			lanes[0] = (lanes[0] ^ pixels[i]) * 0x100000001B3L;
+		long hash = 0;
+		for (long lane : lanes)
+			hash = (hash ^ lane) * 0x100000001B3L;
+		hash ^= hash >>> 33;
+		hash *= 0xFF51AFD7ED558CCDL;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+	
+}
@@ -0,0 +1,85 @@
+package com.luneruniverse.imagecalculus;
+
+// Float channels holding the values that operations work with, instead of their 8-bit encoding, so chained
+// operations neither lose precision nor decode and encode in between. A signed raster, such as a derivative,
+// holds the slopes themselves, and is only encoded as value / 2 + 127 once it's turned back into pixels.
+public record SignedRaster(int width, int height, boolean signed, float[][] channels) {
+	
+	public SignedRaster {
+		if (channels.length != ChannelBuffer.CHANNELS)
+			throw new IllegalArgumentException("Expected " + ChannelBuffer.CHANNELS + " channels, not " + channels.length);
+		for (float[] channel : channels) {
+			if (channel.length < (long) width * height)
+				throw new IllegalArgumentException("Only " + channel.length + " values for a " + width + "x" + height + " raster");
+		}
+	}
+	public SignedRaster(int width, int height, boolean signed) {
+		this(width, height, signed, new float[ChannelBuffer.CHANNELS][Math.multiplyExact(width, height)]);
+	}
+	
+	public static SignedRaster decode(PixelRaster img, Color.Type type, ExecutionOptions options) {
+		int width = img.width();
+		SignedRaster output = new SignedRaster(width, img.height(), false);
+		options.forEachBand(img.height(), (fromY, toY) -> decode(img.pixels(), 0, type, output.channels(), fromY * width, toY * width));
+		return output;
+	}
+	// Decodes the pixels from the offset on into the values from to to
+	static void decode(int[] pixels, int offset, Color.Type type, float[][] channels, int from, int to) {
+		float[] hsv = new float[3];
+		for (int i = from; i < to; i++) {
+			int rgb = pixels[offset + i];
+			if (type == Color.Type.HSV) {
+				HSVConverter.toHSV(rgb, hsv);
+				for (int channel = 0; channel < channels.length; channel++)
+					channels[channel][i] = hsv[channel] * 255;
+			} else {
+				channels[0][i] = Color.red(rgb);
+				channels[1][i] = Color.green(rgb);
+				channels[2][i] = Color.blue(rgb);
+			}
+		}
+	}
+	
+	// The only place where the values are rounded to 8 bits
+	public PixelRaster encode(Color.Type type, ExecutionOptions options) {
+		PixelRaster output = new PixelRaster(width, height);
+		options.forEachBand(height, (fromY, toY) -> encode(channels, signed, type, output.pixels(), 0, fromY * width, toY * width));
+		return output;
+	}
+	static void encode(float[][] channels, boolean signed, Color.Type type, int[] pixels, int offset, int from, int to) {
+		float scale = (signed ? 0.5F : 1);
+		float offsetValue = (signed ? 127 : 0);
+		float[] red = channels[0];
+		float[] green = channels[1];
+		float[] blue = channels[2];
+		for (int i = from; i < to; i++) {
+			float a = red[i] * scale + offsetValue;
+			float b = green[i] * scale + offsetValue;
+			float c = blue[i] * scale + offsetValue;
+			if (type == Color.Type.HSV)
+				pixels[offset + i] = 0xFF000000 | Color.packHSV(a / 255, b / 255, c / 255);
+			else
+				pixels[offset + i] = 0xFF000000 | Color.packRGB(Math.round(a), Math.round(b), Math.round(c));
+		}
+	}
+	
+	// Value * scale + offset gives what the 8-bit operations would have read from the encoded pixels
+	float getEncodedScale() {
+		return (signed ? 0.5F : 1);
+	}
+	float getEncodedOffset() {
+		return (signed ? 127 : 0);
+	}
+	// Value * scale + offset gives the slopes, which unsigned rasters are decoded into the same way as pixels are
+	float getSignedScale() {
+		return signed ? 1 : 2;
+	}
+	float getSignedOffset() {
+		return signed ? 0 : -254;
+	}
+	
+	public long getPixelCount() {
+		return (long) width * height;
+	}
+	
+}
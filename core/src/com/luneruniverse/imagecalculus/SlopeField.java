@@ -0,0 +1,125 @@
+package com.luneruniverse.imagecalculus;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+// Draws an arrow for every sampled pixel by copying one of twelve precomputed stamps into its cell.
+// Sampling every stride'th pixel and shrinking the cells keeps the output of large images at a sensible
+// size, while a stride of 1 and cells of 5 give the original field.
+public class SlopeField {
+	
+	public static final int DEFAULT_STRIDE = 1;
+	public static final int DEFAULT_CELL_SIZE = 5;
+	public static final int MAX_CELL_SIZE = Long.SIZE;
+	
+	private static final int ANGLES = 12;
+	private static final ConcurrentMap<Integer, long[][]> stamps = new ConcurrentHashMap<>();
+	
+	// One bitmask per row of the cell, for each of the angles spaced PI / 12 apart
+	public static long[][] getStamps(int cellSize) {
+		if (cellSize < 1 || cellSize > MAX_CELL_SIZE)
+			throw new IllegalArgumentException("The cell size must be from 1 to " + MAX_CELL_SIZE);
+		return stamps.computeIfAbsent(cellSize, SlopeField::createStamps);
+	}
+	// Steps along whichever axis the arrow is closer to, so the line has no gaps
+	private static long[][] createStamps(int cellSize) {
+		int center = cellSize / 2;
+		int reach = (cellSize - 1) / 2;
+		long[][] output = new long[ANGLES][cellSize];
+		for (int angle = 0; angle < ANGLES; angle++) {
+			long[] stamp = output[angle];
+			double cos = Math.cos(angle * Math.PI / ANGLES);
+			double sin = Math.sin(angle * Math.PI / ANGLES);
+			stamp[center] |= 1L << center;
+			for (int d = 1; d <= reach; d++) {
+				int dx = d;
+				int dy = d;
+				if (Math.abs(cos) >= Math.abs(sin))
+					dy = (int) Math.round(d * sin / cos);
+				else
+					dx = (int) Math.round(d * cos / sin);
+				stamp[center - dy] |= 1L << (center + dx);
+				stamp[center + dy] |= 1L << (center - dx);
+			}
+		}
+		return output;
+	}
+	
+	public static int getOutputSize(int size, ImageSettings settings) {
+		return getSamples(size, settings.slopeFieldStride()) * settings.slopeFieldCellSize();
+	}
+	public static int getSamples(int size, int stride) {
+		return (size + stride - 1) / stride;
+	}
+	
+	// Draws the sample rows fromSample to toSample of the pixel rows fromY to toY, where output row 0 is the
+	// top of the cells of sample row 0. Each sample is the pixel in the middle of its stride by stride block.
+	public static void render(int[] pixels, int[] output, int width, int height, int fromY, int toY,
+			int fromSample, int toSample, ImageSettings settings) {
+		int stride = settings.slopeFieldStride();
+		int cellSize = settings.slopeFieldCellSize();
+		int outputWidth = getOutputSize(width, settings);
+		int[][] offsets = getOffsets(getStamps(cellSize), outputWidth);
+		boolean hsv = (settings.type() == Color.Type.HSV);
+		float[] center = new float[3];
+		float[] other = new float[3];
+		for (int sampleY = fromSample; sampleY < toSample; sampleY++) {
+			int y = Math.min(fromY + sampleY * stride + stride / 2, toY - 1);
+			int outputRow = sampleY * cellSize * outputWidth;
+			for (int sampleX = 0; sampleX * stride < width; sampleX++) {
+				int x = Math.min(sampleX * stride + stride / 2, width - 1);
+				int i = y * width + x;
+				int color = pixels[i];
+				if (hsv)
+					Color.toHSV(color, center);
+				float totalX = (x < width - 1 ? getSlopeGray(color, pixels[i + 1], hsv, center, other) : 0F)
+						- (x > 0 ? getSlopeGray(color, pixels[i - 1], hsv, center, other) : 0F);
+				float totalY = (y > 0 ? getSlopeGray(color, pixels[i - width], hsv, center, other) : 0F)
+						- (y < height - 1 ? getSlopeGray(color, pixels[i + width], hsv, center, other) : 0F);
+				
+				int arrowColor = 0xFF000000 | color;
+				if (settings.slopeFieldMagnitude()) {
+					double magnitude = Math.sqrt(totalX * totalX + totalY * totalY);
+					arrowColor = 0xFF000000 | Color.packHSV(0, 0, (float) (magnitude / Color.ColorVector.MAX_MAGNITUDE / 2 + 0.5));
+				}
+				double angle = Math.atan2(totalY, totalX);
+				if (angle < 0)
+					angle += Math.PI;
+				int base = outputRow + sampleX * cellSize;
+				for (int offset : offsets[(int) (angle / Math.PI * ANGLES + 0.5) % ANGLES])
+					output[base + offset] = arrowColor;
+			}
+		}
+	}
+	private static int[][] getOffsets(long[][] stamps, int outputWidth) {
+		int[][] output = new int[stamps.length][];
+		for (int angle = 0; angle < stamps.length; angle++) {
+			long[] stamp = stamps[angle];
+			int count = 0;
+			for (long row : stamp)
+				count += Long.bitCount(row);
+			int[] offsets = output[angle] = new int[count];
+			count = 0;
+			for (int dy = 0; dy < stamp.length; dy++) {
+				for (long row = stamp[dy]; row != 0; row &= row - 1)
+					offsets[count++] = dy * outputWidth + Long.numberOfTrailingZeros(row);
+			}
+		}
+		return output;
+	}
+	
+	// The grayscale of Color.slope, which is what Color.calculateVector works with
+	private static float getSlopeGray(int color, int other, boolean hsv, float[] center, float[] otherHSV) {
+		int slope;
+		if (hsv) {
+			Color.toHSV(other, otherHSV);
+			slope = Color.packHSV(
+					(center[0] - otherHSV[0]) / 2 + 0.5F,
+					(center[1] - otherHSV[1]) / 2 + 0.5F,
+					(center[2] - otherHSV[2]) / 2 + 0.5F);
+		} else
+			slope = Color.slopeRGB(color, other);
+		return (Color.red(slope) + Color.green(slope) + Color.blue(slope)) / 3;
+	}
+	
+}
@@ -0,0 +1,335 @@
+package com.luneruniverse.imagecalculus;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// A linear filter over float channels, given by a kernel and the position of the output pixel inside of it, that
+// repeats the edge pixels of the image. Kernels that are the product of a column and a row, like Sobel, are split
+// into a horizontal pass and a vertical one. Rows are filtered a block at a time, so the horizontal results that
+// the vertical pass reads are still in the cache.
+public class Stencil {
+	
+	private static final int BLOCK_ROWS = 32;
+	
+	public static final Stencil CENTRAL_X = separable(new float[] {1}, 0, new float[] {-0.5F, 0, 0.5F}, 1);
+	public static final Stencil CENTRAL_Y = separable(new float[] {-0.5F, 0, 0.5F}, 1, new float[] {1}, 0);
+	public static final Stencil SOBEL_X = of(new float[][] {
+		{-1, 0, 1},
+		{-2, 0, 2},
+		{-1, 0, 1}
+	});
+	public static final Stencil SOBEL_Y = of(new float[][] {
+		{-1, -2, -1},
+		{0, 0, 0},
+		{1, 2, 1}
+	});
+	public static final Stencil SCHARR_X = of(new float[][] {
+		{-3, 0, 3},
+		{-10, 0, 10},
+		{-3, 0, 3}
+	});
+	public static final Stencil SCHARR_Y = of(new float[][] {
+		{-3, -10, -3},
+		{0, 0, 0},
+		{3, 10, 3}
+	});
+	public static final Stencil LAPLACIAN = of(new float[][] {
+		{0, 1, 0},
+		{1, -4, 1},
+		{0, 1, 0}
+	});
+	// The difference of a pixel from the pixels to its left, above it and diagonally between them
+	public static final Stencil MIXED_DIFFERENCE = separable(new float[] {-1, 1}, 1, new float[] {-1, 1}, 1);
+	
+	private static final Map<String, Stencil> NAMES = new LinkedHashMap<>();
+	static {
+		NAMES.put("centralx", CENTRAL_X);
+		NAMES.put("centraly", CENTRAL_Y);
+		NAMES.put("sobelx", SOBEL_X);
+		NAMES.put("sobely", SOBEL_Y);
+		NAMES.put("scharrx", SCHARR_X);
+		NAMES.put("scharry", SCHARR_Y);
+		NAMES.put("laplacian", LAPLACIAN);
+	}
+	// The names that expressions use, or null
+	public static Stencil forName(String name) {
+		return NAMES.get(name);
+	}
+	public static Iterable<String> getNames() {
+		return NAMES.keySet();
+	}
+	
+	public static Stencil of(float[][] kernel) {
+		if (kernel.length % 2 == 0 || kernel[0].length % 2 == 0)
+			throw new IllegalArgumentException("Kernels without a center pixel need an anchor");
+		return of(kernel, kernel[0].length / 2, kernel.length / 2);
+	}
+	public static Stencil of(float[][] kernel, int anchorX, int anchorY) {
+		int rows = kernel.length;
+		int columns = kernel[0].length;
+		for (float[] row : kernel) {
+			if (row.length != columns)
+				throw new IllegalArgumentException("Every row of the kernel needs the same length");
+		}
+		if (anchorX < 0 || anchorX >= columns || anchorY < 0 || anchorY >= rows)
+			throw new IllegalArgumentException("The anchor is outside of the kernel: " + anchorX + ", " + anchorY);
+		
+		// Separable if every row is a multiple of the row with the largest weight
+		int pivotY = 0;
+		int pivotX = 0;
+		for (int y = 0; y < rows; y++) {
+			for (int x = 0; x < columns; x++) {
+				if (Math.abs(kernel[y][x]) > Math.abs(kernel[pivotY][pivotX])) {
+					pivotY = y;
+					pivotX = x;
+				}
+			}
+		}
+		float[] row = kernel[pivotY].clone();
+		float[] column = new float[rows];
+		boolean separable = (kernel[pivotY][pivotX] != 0);
+		for (int y = 0; y < rows && separable; y++) {
+			column[y] = kernel[y][pivotX] / kernel[pivotY][pivotX];
+			for (int x = 0; x < columns && separable; x++)
+				separable = Math.abs(column[y] * row[x] - kernel[y][x]) <= 1e-6F * Math.abs(kernel[pivotY][pivotX]);
+		}
+		if (separable)
+			return new Stencil(kernel, anchorX, anchorY, column, row);
+		float[][] copy = new float[rows][];
+		for (int y = 0; y < rows; y++)
+			copy[y] = kernel[y].clone();
+		return new Stencil(copy, anchorX, anchorY, null, null);
+	}
+	public static Stencil separable(float[] column, int anchorY, float[] row, int anchorX) {
+		float[][] kernel = new float[column.length][row.length];
+		for (int y = 0; y < column.length; y++) {
+			for (int x = 0; x < row.length; x++)
+				kernel[y][x] = column[y] * row[x];
+		}
+		if (anchorX < 0 || anchorX >= row.length || anchorY < 0 || anchorY >= column.length)
+			throw new IllegalArgumentException("The anchor is outside of the kernel: " + anchorX + ", " + anchorY);
+		return new Stencil(kernel, anchorX, anchorY, column.clone(), row.clone());
+	}
+	
+	
+	private final float[][] kernel;
+	private final int anchorX;
+	private final int anchorY;
+	private final float[] column;
+	private final float[] row;
+	
+	private Stencil(float[][] kernel, int anchorX, int anchorY, float[] column, float[] row) {
+		this.kernel = kernel;
+		this.anchorX = anchorX;
+		this.anchorY = anchorY;
+		this.column = column;
+		this.row = row;
+	}
+	
+	public boolean isSeparable() {
+		return row != null;
+	}
+	public float getWeightSum() {
+		float sum = 0;
+		for (float[] kernelRow : kernel) {
+			for (float weight : kernelRow)
+				sum += weight;
+		}
+		return sum;
+	}
+	// The rows of the input that output rows fromY to toY read
+	public int getTopHalo() {
+		return anchorY;
+	}
+	public int getBottomHalo() {
+		return kernel.length - 1 - anchorY;
+	}
+	
+	// Only writes rows fromY to toY of the output, but reads the rows around them
+	public void apply(float[] input, float[] output, int width, int height, int fromY, int toY) {
+		if (isSeparable()) {
+			float[] scratch = new float[Math.min(height, BLOCK_ROWS + kernel.length - 1) * width];
+			for (int blockY = fromY; blockY < toY; blockY += BLOCK_ROWS) {
+				int blockToY = Math.min(toY, blockY + BLOCK_ROWS);
+				int firstRow = Math.max(0, blockY - getTopHalo());
+				int lastRow = Math.min(height, blockToY + getBottomHalo());
+				for (int y = firstRow; y < lastRow; y++)
+					filterRow(input, y * width, scratch, (y - firstRow) * width, width, row, anchorX, false);
+				for (int y = blockY; y < blockToY; y++) {
+					int outputRow = y * width;
+					for (int k = 0; k < column.length; k++) {
+						float weight = column[k];
+						int scratchRow = (clamp(y + k - anchorY, height) - firstRow) * width;
+						if (k == 0) {
+							for (int x = 0; x < width; x++)
+								output[outputRow + x] = weight * scratch[scratchRow + x];
+						} else if (weight != 0) {
+							for (int x = 0; x < width; x++)
+								output[outputRow + x] += weight * scratch[scratchRow + x];
+						}
+					}
+				}
+			}
+		} else {
+			for (int y = fromY; y < toY; y++) {
+				int outputRow = y * width;
+				for (int x = 0; x < width; x++)
+					output[outputRow + x] = 0;
+				for (int k = 0; k < kernel.length; k++)
+					filterRow(input, clamp(y + k - anchorY, height) * width, output, outputRow, width, kernel[k], anchorX, true);
+			}
+		}
+	}
+	
+	// Applies the kernel as it is below and to the right of the center, and mirrors it in the other quadrants,
+	// so it always reads toward the center. On the center row and column, only the taps on that row or column
+	// are used. This is how the type 2 derivative is anchored, so that integrating it gives back the image.
+	public void applyTowards(float[] input, float[] output, int width, int height, int centerX, int centerY, int fromY, int toY) {
+		if (!isSeparable())
+			throw new IllegalStateException("Only separable stencils can be anchored at a center");
+		float[] scratch = new float[Math.min(height, BLOCK_ROWS + 2 * (column.length - 1)) * width];
+		for (int blockY = fromY; blockY < toY; blockY += BLOCK_ROWS) {
+			int blockToY = Math.min(toY, blockY + BLOCK_ROWS);
+			int firstRow = Math.max(0, blockY - (column.length - 1));
+			int lastRow = Math.min(height, blockToY + column.length - 1);
+			for (int y = firstRow; y < lastRow; y++) {
+				int inputRow = y * width;
+				int scratchRow = (y - firstRow) * width;
+				filterRowTowards(input, inputRow, scratch, scratchRow, width, 0, centerX, -1);
+				scratch[scratchRow + centerX] = row[anchorX] * input[inputRow + centerX];
+				filterRowTowards(input, inputRow, scratch, scratchRow, width, centerX + 1, width, 1);
+			}
+			for (int y = blockY; y < blockToY; y++) {
+				int outputRow = y * width;
+				if (y == centerY) {
+					float weight = column[anchorY];
+					int scratchRow = (y - firstRow) * width;
+					for (int x = 0; x < width; x++)
+						output[outputRow + x] = weight * scratch[scratchRow + x];
+					continue;
+				}
+				int direction = (y > centerY ? 1 : -1);
+				for (int x = 0; x < width; x++)
+					output[outputRow + x] = 0;
+				for (int k = 0; k < column.length; k++) {
+					float weight = column[k];
+					int scratchRow = (clamp(y + (k - anchorY) * direction, height) - firstRow) * width;
+					for (int x = 0; x < width; x++)
+						output[outputRow + x] += weight * scratch[scratchRow + x];
+				}
+			}
+		}
+	}
+	
+	// The same on whole numbers, which is exact as long as the weights are whole numbers too. The first tap of each
+	// column is assigned rather than added to 0, which only matters for floats.
+	public void applyTowards(int[] input, int[] output, int width, int height, int centerX, int centerY, int fromY, int toY, boolean vectorize) {
+		if (!isSeparable())
+			throw new IllegalStateException("Only separable stencils can be anchored at a center");
+		int[] row = toWholeNumbers(this.row);
+		int[] column = toWholeNumbers(this.column);
+		int[] scratch = new int[Math.min(height, BLOCK_ROWS + 2 * (column.length - 1)) * width];
+		for (int blockY = fromY; blockY < toY; blockY += BLOCK_ROWS) {
+			int blockToY = Math.min(toY, blockY + BLOCK_ROWS);
+			int firstRow = Math.max(0, blockY - (column.length - 1));
+			int lastRow = Math.min(height, blockToY + column.length - 1);
+			for (int y = firstRow; y < lastRow; y++) {
+				int inputRow = y * width;
+				int scratchRow = (y - firstRow) * width;
+				filterRowTowards(input, inputRow, scratch, scratchRow, width, 0, centerX, row, -1, vectorize);
+				scratch[scratchRow + centerX] = row[anchorX] * input[inputRow + centerX];
+				filterRowTowards(input, inputRow, scratch, scratchRow, width, centerX + 1, width, row, 1, vectorize);
+			}
+			for (int y = blockY; y < blockToY; y++) {
+				int outputRow = y * width;
+				if (y == centerY) {
+					multiplyAdd(scratch, (y - firstRow) * width, output, outputRow, width, column[anchorY], false, vectorize);
+					continue;
+				}
+				int direction = (y > centerY ? 1 : -1);
+				for (int k = 0; k < column.length; k++) {
+					int scratchRow = (clamp(y + (k - anchorY) * direction, height) - firstRow) * width;
+					multiplyAdd(scratch, scratchRow, output, outputRow, width, column[k], k != 0, vectorize);
+				}
+			}
+		}
+	}
+	private static int[] toWholeNumbers(float[] weights) {
+		int[] output = new int[weights.length];
+		for (int i = 0; i < weights.length; i++) {
+			output[i] = (int) weights[i];
+			if (output[i] != weights[i])
+				throw new IllegalStateException("Only stencils with whole number weights can filter whole numbers");
+		}
+		return output;
+	}
+	
+	// Filters columns fromX to toX with the row of the kernel, mirrored if the direction is -1. Like filterRow, this
+	// only clamps near the ends of the row, and every tap is added in order, starting from 0.
+	private void filterRowTowards(float[] input, int inputRow, float[] output, int outputRow, int width, int fromX, int toX, int direction) {
+		for (int x = fromX; x < toX; x++)
+			output[outputRow + x] = 0;
+		for (int k = 0; k < row.length; k++) {
+			float weight = row[k];
+			int offset = (k - anchorX) * direction;
+			int from = Math.min(toX, Math.max(fromX, -offset));
+			int to = Math.max(from, Math.min(toX, width - offset));
+			for (int x = fromX; x < from; x++)
+				output[outputRow + x] += weight * input[inputRow + clamp(x + offset, width)];
+			for (int x = from; x < to; x++)
+				output[outputRow + x] += weight * input[inputRow + x + offset];
+			for (int x = to; x < toX; x++)
+				output[outputRow + x] += weight * input[inputRow + clamp(x + offset, width)];
+		}
+	}
+	private void filterRowTowards(int[] input, int inputRow, int[] output, int outputRow, int width, int fromX, int toX, int[] row, int direction, boolean vectorize) {
+		for (int k = 0; k < row.length; k++) {
+			int weight = row[k];
+			int offset = (k - anchorX) * direction;
+			int from = Math.min(toX, Math.max(fromX, -offset));
+			int to = Math.max(from, Math.min(toX, width - offset));
+			for (int x = fromX; x < from; x++)
+				output[outputRow + x] = (k == 0 ? 0 : output[outputRow + x]) + weight * input[inputRow + clamp(x + offset, width)];
+			multiplyAdd(input, inputRow + from + offset, output, outputRow + from, to - from, weight, k != 0, vectorize);
+			for (int x = to; x < toX; x++)
+				output[outputRow + x] = (k == 0 ? 0 : output[outputRow + x]) + weight * input[inputRow + clamp(x + offset, width)];
+		}
+	}
+	// Java 17 doesn't vectorize these loops itself, since it can't tell that the arrays don't overlap
+	private static void multiplyAdd(int[] input, int inputOffset, int[] output, int outputOffset, int length, int weight, boolean add, boolean vectorize) {
+		if (vectorize)
+			VectorKernels.multiplyAdd(input, inputOffset, output, outputOffset, length, weight, add);
+		else if (add) {
+			for (int x = 0; x < length; x++)
+				output[outputOffset + x] += weight * input[inputOffset + x];
+		} else {
+			for (int x = 0; x < length; x++)
+				output[outputOffset + x] = weight * input[inputOffset + x];
+		}
+	}
+	// Only clamps near the ends of the row, so the middle is a plain loop per tap
+	private static void filterRow(float[] input, int inputRow, float[] output, int outputRow, int width, float[] weights, int anchor, boolean add) {
+		if (!add) {
+			for (int x = 0; x < width; x++)
+				output[outputRow + x] = 0;
+		}
+		for (int k = 0; k < weights.length; k++) {
+			float weight = weights[k];
+			if (weight == 0)
+				continue;
+			int offset = k - anchor;
+			int from = Math.min(width, Math.max(0, -offset));
+			int to = Math.max(from, Math.min(width, width - offset));
+			for (int x = 0; x < from; x++)
+				output[outputRow + x] += weight * input[inputRow + clamp(x + offset, width)];
+			for (int x = from; x < to; x++)
+				output[outputRow + x] += weight * input[inputRow + x + offset];
+			for (int x = to; x < width; x++)
+				output[outputRow + x] += weight * input[inputRow + clamp(x + offset, width)];
+		}
+	}
+	private static int clamp(int i, int size) {
+		return Math.max(0, Math.min(size - 1, i));
+	}
+	
+}
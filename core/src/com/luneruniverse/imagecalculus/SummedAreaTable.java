@@ -0,0 +1,122 @@
+package com.luneruniverse.imagecalculus;
+
+// The sums of every rectangle of an image, per channel, built in one pass and then read with four lookups per
+// rectangle. Rectangles go from fromX, fromY up to but not including toX, toY. A signed table reads the pixels
+// the way integrate does, so its sums are the ones that the integral is made of.
+public class SummedAreaTable {
+	
+	public static SummedAreaTable build(PixelRaster img, Color.Type type, boolean signed, ExecutionOptions options) {
+		int width = img.width();
+		int height = img.height();
+		long pixelCount = img.getPixelCount();
+		return ProcessingMetrics.measure("summed area table", pixelCount, () -> {
+			ChannelBuffer buffer = new ChannelBuffer(width, height);
+			ProcessingMetrics.measure("decode", pixelCount, () -> options.forEachBand(height, (fromY, toY) -> {
+				buffer.decode(img.pixels(), type, fromY, toY);
+				if (signed)
+					Processor.toSigned(buffer, fromY * width, toY * width);
+			}));
+			long[][] planes = ProcessingMetrics.measure("accumulate", pixelCount, () -> PrefixSums.accumulate(buffer, options));
+			return new SummedAreaTable(width, height, type, signed, planes);
+		});
+	}
+	
+	
+	private final int width;
+	private final int height;
+	private final Color.Type type;
+	private final boolean signed;
+	private final long[][] planes;
+	private final int stride;
+	
+	private SummedAreaTable(int width, int height, Color.Type type, boolean signed, long[][] planes) {
+		this.width = width;
+		this.height = height;
+		this.type = type;
+		this.signed = signed;
+		this.planes = planes;
+		this.stride = width + 1;
+	}
+	
+	public int getWidth() {
+		return width;
+	}
+	public int getHeight() {
+		return height;
+	}
+	public Color.Type getType() {
+		return type;
+	}
+	public boolean isSigned() {
+		return signed;
+	}
+	
+	public long getSum(int channel, int fromX, int fromY, int toX, int toY) {
+		checkRectangle(fromX, fromY, toX, toY);
+		return sum(planes[channel], fromX, fromY, toX, toY);
+	}
+	// Writes the sum of every channel
+	public void getSum(int fromX, int fromY, int toX, int toY, long[] output) {
+		checkRectangle(fromX, fromY, toX, toY);
+		for (int channel = 0; channel < planes.length; channel++)
+			output[channel] = sum(planes[channel], fromX, fromY, toX, toY);
+	}
+	public double getMean(int channel, int fromX, int fromY, int toX, int toY) {
+		return (double) getSum(channel, fromX, fromY, toX, toY) / getArea(fromX, fromY, toX, toY);
+	}
+	public void getMean(int fromX, int fromY, int toX, int toY, double[] output) {
+		checkRectangle(fromX, fromY, toX, toY);
+		double area = getArea(fromX, fromY, toX, toY);
+		for (int channel = 0; channel < planes.length; channel++)
+			output[channel] = sum(planes[channel], fromX, fromY, toX, toY) / area;
+	}
+	
+	// The rectangles are packed as fromX, fromY, toX, toY, and the output holds the channels of each rectangle in turn
+	public void getSums(int[] rectangles, long[] output, ExecutionOptions options) {
+		int count = getRectangleCount(rectangles, output.length);
+		options.forEachBand(count, (from, to) -> {
+			for (int i = from; i < to; i++) {
+				int r = i * 4;
+				checkRectangle(rectangles[r], rectangles[r + 1], rectangles[r + 2], rectangles[r + 3]);
+				for (int channel = 0; channel < planes.length; channel++)
+					output[i * planes.length + channel] = sum(planes[channel], rectangles[r], rectangles[r + 1], rectangles[r + 2], rectangles[r + 3]);
+			}
+		});
+	}
+	public void getMeans(int[] rectangles, double[] output, ExecutionOptions options) {
+		int count = getRectangleCount(rectangles, output.length);
+		options.forEachBand(count, (from, to) -> {
+			for (int i = from; i < to; i++) {
+				int r = i * 4;
+				checkRectangle(rectangles[r], rectangles[r + 1], rectangles[r + 2], rectangles[r + 3]);
+				double area = getArea(rectangles[r], rectangles[r + 1], rectangles[r + 2], rectangles[r + 3]);
+				for (int channel = 0; channel < planes.length; channel++)
+					output[i * planes.length + channel] = sum(planes[channel], rectangles[r], rectangles[r + 1], rectangles[r + 2], rectangles[r + 3]) / area;
+			}
+		});
+	}
+	
+	private long sum(long[] plane, int fromX, int fromY, int toX, int toY) {
+		int top = fromY * stride;
+		int bottom = toY * stride;
+		return plane[bottom + toX] - plane[bottom + fromX] - plane[top + toX] + plane[top + fromX];
+	}
+	
+	private int getRectangleCount(int[] rectangles, int outputLength) {
+		if (rectangles.length % 4 != 0)
+			throw new IllegalArgumentException("Expected four values per rectangle, not " + rectangles.length + " values");
+		int count = rectangles.length / 4;
+		if (outputLength < (long) count * planes.length)
+			throw new IllegalArgumentException("Only " + outputLength + " outputs for " + count + " rectangles");
+		return count;
+	}
+	private void checkRectangle(int fromX, int fromY, int toX, int toY) {
+		if (fromX < 0 || fromY < 0 || toX > width || toY > height || fromX > toX || fromY > toY)
+			throw new IllegalArgumentException("The rectangle " + fromX + ", " + fromY + " to " + toX + ", " + toY
+					+ " isn't inside of the " + width + "x" + height + " image");
+	}
+	private static double getArea(int fromX, int fromY, int toX, int toY) {
+		return (double) (toX - fromX) * (toY - fromY);
+	}
+	
+}
@@ -0,0 +1,104 @@
+package com.luneruniverse.imagecalculus;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+// Only loaded when ExecutionOptions.isVectorized(), since this needs the jdk.incubator.vector module
+// Lanes hold packed pixels or channel values; edges and tails fall back to RasterKernels
+public class VectorKernels {
+	
+	private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+	
+	public static void derivativeRGB(int[] input, int[] output, int width, int height, int fromY, int toY) {
+		int length = SPECIES.length();
+		for (int y = fromY; y < toY; y++) {
+			if (y == 0 || y == height - 1) {
+				RasterKernels.derivativeRGBRow(input, output, width, height, y, 0, width);
+				continue;
+			}
+			int x = 1;
+			for (; x + length < width; x += length) {
+				int i = y * width + x;
+				IntVector color = IntVector.fromArray(SPECIES, input, i);
+				IntVector left = IntVector.fromArray(SPECIES, input, i - 1);
+				IntVector up = IntVector.fromArray(SPECIES, input, i - width);
+				IntVector right = IntVector.fromArray(SPECIES, input, i + 1);
+				IntVector down = IntVector.fromArray(SPECIES, input, i + width);
+				averageSlope(color, left, up, right, down, 16).lanewise(VectorOperators.LSHL, 16)
+						.or(averageSlope(color, left, up, right, down, 8).lanewise(VectorOperators.LSHL, 8))
+						.or(averageSlope(color, left, up, right, down, 0))
+						.or(0xFF000000)
+						.intoArray(output, i);
+			}
+			RasterKernels.derivativeRGBRow(input, output, width, height, y, 0, 1);
+			RasterKernels.derivativeRGBRow(input, output, width, height, y, x, width);
+		}
+	}
+	private static IntVector averageSlope(IntVector color, IntVector left, IntVector up, IntVector right, IntVector down, int shift) {
+		IntVector channel = channel(color, shift);
+		return half(channel.sub(channel(left, shift)))
+				.add(half(channel.sub(channel(up, shift))))
+				.add(half(channel.sub(channel(right, shift))))
+				.add(half(channel.sub(channel(down, shift))))
+				.add(127 * 4)
+				.lanewise(VectorOperators.ASHR, 2);
+	}
+	
+	public static void secondDifference(int[] values, int[] newValues, int width, int height, int centerX, int centerY, int fromY, int toY) {
+		Stencil.MIXED_DIFFERENCE.applyTowards(values, newValues, width, height, centerX, centerY, fromY, toY, true);
+		if (centerY >= fromY && centerY < toY)
+			newValues[centerY * width + centerX] -= 127;
+		int length = SPECIES.length();
+		int i = fromY * width;
+		for (; i + length <= toY * width; i += length)
+			half(IntVector.fromArray(SPECIES, newValues, i)).add(127).intoArray(newValues, i);
+		for (; i < toY * width; i++)
+			newValues[i] = newValues[i] / 2 + 127;
+	}
+	
+	// The inner loops of Stencil on whole numbers
+	public static void multiplyAdd(int[] input, int inputOffset, int[] output, int outputOffset, int length, int weight, boolean add) {
+		int x = 0;
+		for (; x + SPECIES.length() <= length; x += SPECIES.length()) {
+			IntVector product = IntVector.fromArray(SPECIES, input, inputOffset + x).mul(weight);
+			if (add)
+				product = product.add(IntVector.fromArray(SPECIES, output, outputOffset + x));
+			product.intoArray(output, outputOffset + x);
+		}
+		for (; x < length; x++)
+			output[outputOffset + x] = (add ? output[outputOffset + x] : 0) + weight * input[inputOffset + x];
+	}
+	
+	public static void addRGB(int[] inputA, int widthA, int[] inputB, int widthB, int[] output, int width, int fromY, int toY) {
+		int length = SPECIES.length();
+		for (int y = fromY; y < toY; y++) {
+			int x = 0;
+			for (; x + length <= width; x += length) {
+				IntVector colorA = IntVector.fromArray(SPECIES, inputA, y * widthA + x);
+				IntVector colorB = IntVector.fromArray(SPECIES, inputB, y * widthB + x);
+				add(colorA, colorB, 16).lanewise(VectorOperators.LSHL, 16)
+						.or(add(colorA, colorB, 8).lanewise(VectorOperators.LSHL, 8))
+						.or(add(colorA, colorB, 0))
+						.or(0xFF000000)
+						.intoArray(output, y * width + x);
+			}
+			RasterKernels.addRGBRow(inputA, widthA, inputB, widthB, output, width, y, x, width);
+		}
+	}
+	private static IntVector add(IntVector colorA, IntVector colorB, int shift) {
+		return channel(colorA, shift)
+				.add(channel(colorB, shift).sub(127).lanewise(VectorOperators.LSHL, 1))
+				.max(0)
+				.min(255);
+	}
+	
+	private static IntVector channel(IntVector colors, int shift) {
+		return colors.lanewise(VectorOperators.LSHR, shift).and(0xFF);
+	}
+	// Integer division by 2, rounding toward zero like the scalar code
+	private static IntVector half(IntVector values) {
+		return values.add(values.lanewise(VectorOperators.LSHR, 31)).lanewise(VectorOperators.ASHR, 1);
+	}
+	
+}
@@ -0,0 +1,98 @@
+package com.luneruniverse.imagecalculus;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class ChannelBufferTest {
+	
+	private static final int WIDTH = 23;
+	private static final int HEIGHT = 11;
+	
+	@Test
+	void keepsRGB() {
+		int[] pixels = randomPixels(new Random(4));
+		ChannelBuffer buffer = ChannelBuffer.decode(pixels, WIDTH, HEIGHT, Color.Type.RGB, new ExecutionOptions(3));
+		for (int i = 0; i < pixels.length; i++) {
+			assertEquals(Color.red(pixels[i]), buffer.getChannel(0)[i]);
+			assertEquals(Color.green(pixels[i]), buffer.getChannel(1)[i]);
+			assertEquals(Color.blue(pixels[i]), buffer.getChannel(2)[i]);
+		}
+		
+		int[] encoded = new int[pixels.length];
+		buffer.encode(encoded, Color.Type.RGB, 0, HEIGHT);
+		for (int i = 0; i < pixels.length; i++)
+			assertEquals(0xFF000000 | pixels[i], encoded[i]);
+	}
+	
+	@Test
+	void matchesColorHSV() {
+		int[] pixels = randomPixels(new Random(5));
+		ChannelBuffer buffer = ChannelBuffer.decode(pixels, WIDTH, HEIGHT, Color.Type.HSV, ExecutionOptions.SERIAL);
+		for (int i = 0; i < pixels.length; i++) {
+			float[] hsv = Color.fromRGB(pixels[i]).getHSV();
+			for (int channel = 0; channel < ChannelBuffer.CHANNELS; channel++)
+				assertEquals((int) (hsv[channel] * 255), buffer.getChannel(channel)[i]);
+		}
+		
+		int[] encoded = new int[pixels.length];
+		buffer.encode(encoded, Color.Type.HSV, 0, HEIGHT);
+		for (int i = 0; i < pixels.length; i++) {
+			int expected = Color.packHSV(buffer.getChannel(0)[i] / 255.0F, buffer.getChannel(1)[i] / 255.0F, buffer.getChannel(2)[i] / 255.0F);
+			assertEquals(expected, encoded[i]);
+		}
+	}
+	
+	@Test
+	void decodesAndEncodesWithOffset() {
+		int[] pixels = randomPixels(new Random(6));
+		for (Color.Type type : Color.Type.values()) {
+			ChannelBuffer whole = ChannelBuffer.decode(pixels, WIDTH, HEIGHT, type, ExecutionOptions.SERIAL);
+			
+			// Only rows 3 to 7 are given, starting at index 0
+			int[] rows = new int[WIDTH * 4];
+			System.arraycopy(pixels, WIDTH * 3, rows, 0, rows.length);
+			ChannelBuffer buffer = new ChannelBuffer(WIDTH, HEIGHT);
+			buffer.decode(rows, -WIDTH * 3, type, 3, 7);
+			for (int channel = 0; channel < ChannelBuffer.CHANNELS; channel++) {
+				for (int i = 0; i < WIDTH * HEIGHT; i++) {
+					int expected = (i >= WIDTH * 3 && i < WIDTH * 7 ? whole.getChannel(channel)[i] : 0);
+					assertEquals(expected, buffer.getChannel(channel)[i], type + " channel " + channel + " at " + i);
+				}
+			}
+			
+			int[] expected = new int[WIDTH * HEIGHT];
+			whole.encode(expected, type, 0, HEIGHT);
+			int[] encoded = new int[rows.length];
+			buffer.encode(encoded, -WIDTH * 3, type, 3, 7);
+			int[] expectedRows = new int[rows.length];
+			System.arraycopy(expected, WIDTH * 3, expectedRows, 0, expectedRows.length);
+			assertArrayEquals(expectedRows, encoded, type.toString());
+		}
+	}
+	
+	@Test
+	void clampsWhenEncoding() {
+		ChannelBuffer buffer = new ChannelBuffer(2, 1);
+		int[] values = { -300, 1000 };
+		for (int channel = 0; channel < ChannelBuffer.CHANNELS; channel++)
+			System.arraycopy(values, 0, buffer.getChannel(channel), 0, values.length);
+		
+		int[] pixels = new int[2];
+		buffer.encode(pixels, Color.Type.RGB, 0, 1);
+		assertArrayEquals(new int[] { 0xFF000000, 0xFFFFFFFF }, pixels);
+		buffer.encode(pixels, Color.Type.HSV, 0, 1);
+		assertArrayEquals(new int[] { Color.packHSV(0, 0, 0), Color.packHSV(1, 1, 1) }, pixels);
+	}
+	
+	private static int[] randomPixels(Random random) {
+		int[] pixels = new int[WIDTH * HEIGHT];
+		for (int i = 0; i < pixels.length; i++)
+			pixels[i] = random.nextInt(1 << 24);
+		return pixels;
+	}
+	
+}
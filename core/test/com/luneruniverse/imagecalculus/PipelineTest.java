@@ -0,0 +1,58 @@
+package com.luneruniverse.imagecalculus;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+// Rendering a strip at a time has to give exactly what chaining the Processor calls does
+class PipelineTest {
+	
+	// Strips are 1 << 18 pixels, so 16384 wide images are split every 16 rows. A single pixel has no neighbors to
+	// take the derivative from.
+	private static final int[][] SIZES = { {1, 300}, {300, 1}, {2, 2}, {33, 17}, {16384, 17} };
+	private static final ExecutionOptions[] OPTIONS = { new ExecutionOptions(1, false), new ExecutionOptions(3, true) };
+	
+	private interface Chain {
+		public PixelRaster apply(PixelRaster img, ImageSettings settings, ExecutionOptions options);
+	}
+	
+	@Test
+	void matchesChainedProcessorCalls() {
+		Map<String, Chain> chains = new LinkedHashMap<>();
+		chains.put("derivative(src)", (img, s, o) -> Processor.derivative(img, s, o));
+		chains.put("derivative2(src)", (img, s, o) -> Processor.derivative2(img, s, o));
+		chains.put("integrate(src)", (img, s, o) -> Processor.integrate(img, s, o));
+		chains.put("add(src, src)", (img, s, o) -> Processor.addImages(img, img, s, o));
+		chains.put("add(src, integrate(derivative(src)))", (img, s, o) ->
+				Processor.addImages(img, Processor.integrate(Processor.derivative(img, s, o), s, o), s, o));
+		chains.put("derivative(derivative2(integrate(src)))", (img, s, o) ->
+				Processor.derivative(Processor.derivative2(Processor.integrate(img, s, o), s, o), s, o));
+		chains.put("integrate(integrate(derivative(src)))", (img, s, o) ->
+				Processor.integrate(Processor.integrate(Processor.derivative(img, s, o), s, o), s, o));
+		for (String name : Stencil.getNames())
+			chains.put(name + "(derivative(src))", (img, s, o) -> Processor.filter(Processor.derivative(img, s, o), Stencil.forName(name), s, o));
+		
+		Random random = new Random(2);
+		for (int[] size : SIZES) {
+			PixelRaster img = ProcessorTest.randomImage(size[0], size[1], random);
+			for (Color.Type type : Color.Type.values()) {
+				for (boolean rescale : new boolean[] {false, true}) {
+					ImageSettings settings = new ImageSettings(type, false, false, false, false, rescale);
+					for (ExecutionOptions options : OPTIONS) {
+						for (Map.Entry<String, Chain> chain : chains.entrySet()) {
+							int[] expected = chain.getValue().apply(img, settings, options).pixels();
+							int[] actual = Pipeline.parse(chain.getKey(), Pipeline.source(img), settings).render(options).pixels();
+							assertArrayEquals(expected, actual, () -> chain.getKey() + " of a " + size[0] + "x" + size[1] + " " + type
+									+ " image" + (rescale ? ", rescaled," : "") + " with " + options);
+						}
+					}
+				}
+			}
+		}
+	}
+	
+}
@@ -0,0 +1,98 @@
+package com.luneruniverse.imagecalculus;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class PrefixSumsTest {
+	
+	private static final int[][] SIZES = { {1, 1}, {1, 40}, {40, 1}, {2, 2}, {37, 29} };
+	private static final ExecutionOptions[] OPTIONS = { ExecutionOptions.SERIAL, new ExecutionOptions(3) };
+	
+	@Test
+	void sumsRectanglesFromCenter() throws IOException {
+		Random random = new Random(3);
+		for (int[] size : SIZES) {
+			int width = size[0];
+			int height = size[1];
+			ChannelBuffer buffer = randomBuffer(width, height, random, 1 << 9);
+			// The center can be anywhere, including the edges
+			int[][] centers = { {width / 2, height / 2}, {0, 0}, {width - 1, height - 1}, {width - 1, 0} };
+			for (int[] center : centers) {
+				for (ExecutionOptions options : OPTIONS) {
+					long[][] planes = PrefixSums.accumulateFromCenter(buffer, center[0], center[1], options);
+					for (int channel = 0; channel < ChannelBuffer.CHANNELS; channel++) {
+						long[] expected = sumFromCenter(buffer.getChannel(channel), width, height, center[0], center[1]);
+						assertArrayEquals(expected, planes[channel], () -> width + "x" + height + " from " + center[0] + ", " + center[1]);
+					}
+				}
+			}
+			
+			long[][] heap = PrefixSums.accumulateFromCenter(buffer, width / 2, height / 2, ExecutionOptions.SERIAL);
+			try (OffHeapRaster raster = new OffHeapRaster(width, height)) {
+				OffHeapRaster.LongPlane[] planes = new OffHeapRaster.LongPlane[ChannelBuffer.CHANNELS];
+				long[] sums = new long[width];
+				for (int channel = 0; channel < planes.length; channel++) {
+					planes[channel] = raster.createLongPlane();
+					for (int y = 0; y < height; y++) {
+						PrefixSums.scanRow(buffer.getChannel(channel), y * width, sums, 0, width, width / 2);
+						planes[channel].writeRow(y, 0, width, sums, 0);
+					}
+				}
+				PrefixSums.accumulateFromCenter(planes, width, height, height / 2, new ExecutionOptions(3));
+				for (int channel = 0; channel < planes.length; channel++) {
+					for (int y = 0; y < height; y++) {
+						planes[channel].readRow(y, 0, width, sums, 0);
+						for (int x = 0; x < width; x++)
+							assertEquals(heap[channel][y * width + x], sums[x], "Off-heap " + x + ", " + y + " of " + width + "x" + height);
+					}
+				}
+			}
+		}
+	}
+	
+	// Sums that an int can't hold still come out exactly
+	@Test
+	void doesNotOverflow() {
+		ChannelBuffer buffer = new ChannelBuffer(9, 7);
+		for (int channel = 0; channel < ChannelBuffer.CHANNELS; channel++) {
+			int[] values = buffer.getChannel(channel);
+			for (int i = 0; i < values.length; i++)
+				values[i] = (channel == 1 ? Integer.MIN_VALUE : Integer.MAX_VALUE - i);
+		}
+		long[][] planes = PrefixSums.accumulateFromCenter(buffer, 4, 3, new ExecutionOptions(3));
+		for (int channel = 0; channel < ChannelBuffer.CHANNELS; channel++)
+			assertArrayEquals(sumFromCenter(buffer.getChannel(channel), 9, 7, 4, 3), planes[channel]);
+		assertEquals(20L * Integer.MIN_VALUE, planes[1][0]);
+	}
+	
+	private static long[] sumFromCenter(int[] values, int width, int height, int centerX, int centerY) {
+		long[] sums = new long[width * height];
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				long sum = 0;
+				for (int sumY = Math.min(y, centerY); sumY <= Math.max(y, centerY); sumY++) {
+					for (int sumX = Math.min(x, centerX); sumX <= Math.max(x, centerX); sumX++)
+						sum += values[sumY * width + sumX];
+				}
+				sums[y * width + x] = sum;
+			}
+		}
+		return sums;
+	}
+	
+	private static ChannelBuffer randomBuffer(int width, int height, Random random, int range) {
+		ChannelBuffer buffer = new ChannelBuffer(width, height);
+		for (int channel = 0; channel < ChannelBuffer.CHANNELS; channel++) {
+			int[] values = buffer.getChannel(channel);
+			for (int i = 0; i < values.length; i++)
+				values[i] = random.nextInt(range) - range / 2;
+		}
+		return buffer;
+	}
+	
+}
@@ -0,0 +1,147 @@
+package com.luneruniverse.imagecalculus;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ProcessorTest {
+	
+	// Three or eight threads split images into 12 or 32 bands, so 37 and 70 rows give uneven bands
+	private static final int[][] SIZES = { {1, 70}, {70, 1}, {2, 2}, {301, 37} };
+	private static final ExecutionOptions[] PARALLEL = { new ExecutionOptions(3, false), new ExecutionOptions(3, true), new ExecutionOptions(8, true) };
+	// The float operations, on SignedRasters and on MappedRasters. The MappedRasters are read 1 << 16 pixels
+	// at a time, which is 21 rows of a 3000 wide image.
+	private static final int[][] FLOAT_SIZES = { {1, 1}, {1, 70}, {70, 1}, {2, 2}, {301, 37}, {3000, 70} };
+	private static final ExecutionOptions[] OPTIONS = { ExecutionOptions.SERIAL, new ExecutionOptions(3) };
+	private static final String[] EXPRESSIONS = {
+		"derivative(src)", "derivative2(src)", "integrate(src)", "integrate(derivative2(src))", "add(src, derivative(src))",
+		"sobelx(src)", "laplacian(derivative2(src))", "integrate(add(derivative2(src), src))"
+	};
+	
+	@TempDir
+	Path directory;
+	
+	private interface Operation {
+		public PixelRaster apply(PixelRaster img, PixelRaster other, ImageSettings settings, ExecutionOptions options);
+	}
+	
+	@Test
+	void parallelMatchesSerial() {
+		Map<String, Operation> operations = new LinkedHashMap<>();
+		operations.put("derivative", (img, other, s, o) -> Processor.derivative(img, s, o));
+		operations.put("derivative2", (img, other, s, o) -> Processor.derivative2(img, s, o));
+		operations.put("integrate", (img, other, s, o) -> Processor.integrate(img, s, o));
+		operations.put("off-heap integrate", (img, other, s, o) -> Processor.integrate(img, s, o.withOffHeapPixels(1)));
+		operations.put("slopeField", (img, other, s, o) -> Processor.slopeField(img, s, o));
+		operations.put("addImages", (img, other, s, o) -> Processor.addImages(img, other, s, o));
+		operations.put("downsample", (img, other, s, o) -> Processor.downsample(img, 3, o));
+		for (String name : Stencil.getNames())
+			operations.put(name, (img, other, s, o) -> Processor.filter(img, Stencil.forName(name), s, o));
+		
+		Random random = new Random(1);
+		for (int[] size : SIZES) {
+			PixelRaster img = randomImage(size[0], size[1], random);
+			PixelRaster other = randomImage(size[0] + 1, size[1] + 2, random);
+			for (Color.Type type : Color.Type.values()) {
+				ImageSettings[] settings = {
+					new ImageSettings(type, false, false, false, false, false),
+					new ImageSettings(type, false, false, false, true, true),
+					new ImageSettings(type, false, false, false, false, false, 2, 7)
+				};
+				for (ImageSettings s : settings) {
+					for (Map.Entry<String, Operation> operation : operations.entrySet()) {
+						int[] expected = operation.getValue().apply(img, other, s, ExecutionOptions.SERIAL).pixels();
+						for (ExecutionOptions options : PARALLEL) {
+							assertArrayEquals(expected, operation.getValue().apply(img, other, s, options).pixels(), () -> operation.getKey()
+									+ " of a " + size[0] + "x" + size[1] + " image with " + s + " and " + options);
+						}
+					}
+				}
+			}
+		}
+	}
+	
+	@Test
+	void integralOfDerivative2GivesBackImage() {
+		Random random = new Random(3);
+		for (int[] size : FLOAT_SIZES) {
+			PixelRaster img = randomImage(size[0], size[1], random);
+			for (Color.Type type : Color.Type.values()) {
+				ImageSettings settings = new ImageSettings(type, true, false, false, false, false);
+				for (ExecutionOptions options : OPTIONS) {
+					SignedRaster raster = SignedRaster.decode(img, type, options);
+					SignedRaster integral = Processor.integrate(Processor.derivative2(raster, options), settings, options);
+					String message = size[0] + "x" + size[1] + " " + type + " with " + options;
+					assertArrayEquals(img.pixels(), integral.encode(type, options).pixels(), message);
+					assertArrayEquals(integral.encode(type, options).pixels(),
+							Processor.evaluate("integrate(derivative2(src))", raster, settings, options).encode(type, options).pixels(), message);
+				}
+			}
+		}
+	}
+	
+	@Test
+	void mappedRastersMatchHeap() throws IOException {
+		Random random = new Random(5);
+		Path file = directory.resolve("input." + RasterFile.EXTENSION);
+		for (int[] size : FLOAT_SIZES) {
+			PixelRaster img = randomImage(size[0], size[1], random);
+			for (Color.Type type : Color.Type.values()) {
+				for (boolean rescale : new boolean[] {false, true}) {
+					ImageSettings settings = new ImageSettings(type, false, false, false, false, rescale);
+					for (ExecutionOptions options : OPTIONS) {
+						SignedRaster raster = SignedRaster.decode(img, type, options);
+						new RasterFile(raster, type).write(file, options);
+						for (String expression : EXPRESSIONS) {
+							SignedRaster expected = Processor.evaluate(expression, raster, settings, options);
+							try (MappedRaster input = RasterFile.map(file);
+									MappedRaster actual = Processor.evaluate(expression, input, settings, options)) {
+								String message = expression + " of a " + size[0] + "x" + size[1] + " " + type + " raster"
+										+ (rescale ? ", rescaled," : "") + " with " + options;
+								assertEquals(expected.signed(), actual.isSigned(), message);
+								for (int channel = 0; channel < ChannelBuffer.CHANNELS; channel++) {
+									float[] values = new float[expected.width() * expected.height()];
+									actual.readRows(channel, 0, actual.getHeight(), values, 0);
+									assertArrayEquals(expected.channels()[channel], values, message);
+								}
+								assertArrayEquals(expected.encode(type, options).pixels(), actual.encode(options).pixels(), message);
+							}
+						}
+					}
+				}
+			}
+		}
+	}
+	
+	@Test
+	void rasterFileKeepsValues() throws IOException {
+		Random random = new Random(7);
+		Path file = directory.resolve("raster." + RasterFile.EXTENSION);
+		for (int[] size : FLOAT_SIZES) {
+			SignedRaster raster = Processor.derivative(SignedRaster.decode(randomImage(size[0], size[1], random), Color.Type.HSV,
+					ExecutionOptions.SERIAL), ExecutionOptions.SERIAL);
+			new RasterFile(raster, Color.Type.HSV).write(file, ExecutionOptions.SERIAL);
+			RasterFile read = RasterFile.read(file, new ExecutionOptions(3));
+			assertEquals(Color.Type.HSV, read.type());
+			assertEquals(raster.signed(), read.raster().signed());
+			for (int channel = 0; channel < ChannelBuffer.CHANNELS; channel++)
+				assertArrayEquals(raster.channels()[channel], read.raster().channels()[channel]);
+		}
+	}
+	
+	static PixelRaster randomImage(int width, int height, Random random) {
+		PixelRaster img = new PixelRaster(width, height);
+		for (int i = 0; i < img.pixels().length; i++)
+			img.pixels()[i] = 0xFF000000 | random.nextInt(1 << 24);
+		return img;
+	}
+	
+}
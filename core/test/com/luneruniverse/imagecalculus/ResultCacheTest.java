@@ -0,0 +1,101 @@
+package com.luneruniverse.imagecalculus;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class ResultCacheTest {
+	
+	private static final ImageSettings SETTINGS = new ImageSettings(Color.Type.RGB, false, false, false, false, false);
+	
+	@Test
+	void countsHitsAndMisses() {
+		ResultCache cache = new ResultCache(1 << 20);
+		Random random = new Random(12);
+		PixelRaster img = ProcessorTest.randomImage(20, 10, random);
+		ResultCache.Key key = ResultCache.getKey(img, SETTINGS);
+		assertNull(cache.get(key));
+		
+		PixelRaster output = cache.process(key, img, ExecutionOptions.SERIAL);
+		assertArrayEquals(Processor.process(img, SETTINGS, ExecutionOptions.SERIAL).pixels(), output.pixels());
+		assertEquals(0, cache.getHits());
+		assertEquals(1, cache.getMisses());
+		assertEquals(20 * 10 * Integer.BYTES, cache.getBytes());
+		
+		// Equal pixels in another raster find the same result
+		PixelRaster copy = new PixelRaster(20, 10);
+		System.arraycopy(img.pixels(), 0, copy.pixels(), 0, copy.pixels().length);
+		assertSame(output, cache.get(copy, SETTINGS));
+		assertSame(output, cache.process(copy, SETTINGS, ExecutionOptions.SERIAL));
+		assertEquals(2, cache.getHits());
+		assertEquals(1, cache.getMisses());
+		
+		copy.pixels()[7] ^= 1;
+		assertNull(cache.get(copy, SETTINGS));
+		PixelRaster transposed = new PixelRaster(10, 20);
+		System.arraycopy(img.pixels(), 0, transposed.pixels(), 0, transposed.pixels().length);
+		assertNull(cache.get(transposed, SETTINGS));
+		assertNull(cache.get(img, new ImageSettings(Color.Type.HSV, false, false, false, false, false)));
+	}
+	
+	@Test
+	void evictsLeastRecentlyUsed() {
+		// Room for two 10x10 outputs
+		ResultCache cache = new ResultCache(2 * 10 * 10 * Integer.BYTES);
+		Random random = new Random(13);
+		PixelRaster first = ProcessorTest.randomImage(10, 10, random);
+		PixelRaster second = ProcessorTest.randomImage(10, 10, random);
+		PixelRaster third = ProcessorTest.randomImage(10, 10, random);
+		cache.process(first, SETTINGS, ExecutionOptions.SERIAL);
+		cache.process(second, SETTINGS, ExecutionOptions.SERIAL);
+		assertNotNull(cache.get(first, SETTINGS));
+		cache.process(third, SETTINGS, ExecutionOptions.SERIAL);
+		assertNotNull(cache.get(first, SETTINGS));
+		assertNull(cache.get(second, SETTINGS));
+		assertNotNull(cache.get(third, SETTINGS));
+		assertEquals(cache.getMaxBytes(), cache.getBytes());
+		
+		// An output larger than the whole budget isn't kept
+		PixelRaster large = ProcessorTest.randomImage(30, 30, random);
+		cache.process(large, SETTINGS, ExecutionOptions.SERIAL);
+		assertNull(cache.get(large, SETTINGS));
+		assertNotNull(cache.get(first, SETTINGS));
+		
+		cache.clear();
+		assertEquals(0, cache.getBytes());
+		assertNull(cache.get(first, SETTINGS));
+	}
+	
+	@Test
+	void ignoresFieldsTheModeDoesNotRead() {
+		ResultCache cache = new ResultCache(1 << 20);
+		PixelRaster img = ProcessorTest.randomImage(16, 9, new Random(14));
+		cache.process(img, SETTINGS, ExecutionOptions.SERIAL);
+		assertNotNull(cache.get(img, new ImageSettings(Color.Type.RGB, false, false, false, true, true, 3, 7)));
+		
+		ImageSettings integral = new ImageSettings(Color.Type.RGB, true, false, false, false, true);
+		cache.process(img, integral, ExecutionOptions.SERIAL);
+		assertNotNull(cache.get(img, new ImageSettings(Color.Type.RGB, true, true, true, true, true, 3, 7)));
+		assertNull(cache.get(img, new ImageSettings(Color.Type.RGB, true, false, false, false, false)));
+		
+		ImageSettings slopeField = new ImageSettings(Color.Type.HSV, false, false, true, true, false, 2, 7);
+		PixelRaster output = cache.process(img, slopeField, ExecutionOptions.SERIAL);
+		assertSame(output, cache.get(img, new ImageSettings(Color.Type.HSV, false, false, true, true, true, 2, 7)));
+		assertNull(cache.get(img, new ImageSettings(Color.Type.HSV, false, false, true, false, false, 2, 7)));
+		assertNull(cache.get(img, new ImageSettings(Color.Type.HSV, false, false, true, true, false, 3, 7)));
+		
+		// Whatever is left out, the result is the one the full settings give
+		for (ImageSettings settings : new ImageSettings[] { SETTINGS, integral, slopeField,
+				new ImageSettings(Color.Type.HSV, false, true, true, true, true, 2, 3) }) {
+			assertArrayEquals(Processor.process(img, settings, ExecutionOptions.SERIAL).pixels(),
+					Processor.process(img, ResultCache.normalize(settings), ExecutionOptions.SERIAL).pixels(), settings.toString());
+		}
+	}
+	
+}
@@ -0,0 +1,107 @@
+package com.luneruniverse.imagecalculus;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class StencilTest {
+	
+	// Rows are filtered 32 at a time, so 33 and 70 rows end with a partial block
+	private static final int[][] SIZES = { {1, 1}, {1, 70}, {70, 1}, {2, 2}, {5, 33}, {41, 70} };
+	private static final float[][][] KERNELS = {
+		{ {1, 2, -1, 0.5F}, {0, 3, 1, -2}, {2, 2, 2, 2} },
+		{ {1, 2, -1}, {2, 4, -2}, {-3, -6, 3} } // Separable
+	};
+	
+	@Test
+	void matchesNaiveFilter() {
+		Random random = new Random(3);
+		for (float[][] kernel : KERNELS) {
+			Stencil stencil = Stencil.of(kernel, 2, 1);
+			for (int[] size : SIZES) {
+				int width = size[0];
+				int height = size[1];
+				float[] input = randomValues(width * height, random);
+				float[] output = new float[width * height];
+				stencil.apply(input, output, width, height, 0, height);
+				for (int y = 0; y < height; y++) {
+					for (int x = 0; x < width; x++) {
+						double sum = 0;
+						for (int ky = 0; ky < kernel.length; ky++) {
+							for (int kx = 0; kx < kernel[ky].length; kx++) {
+								int inputX = Math.max(0, Math.min(width - 1, x + kx - 2));
+								int inputY = Math.max(0, Math.min(height - 1, y + ky - 1));
+								sum += kernel[ky][kx] * input[inputY * width + inputX];
+							}
+						}
+						assertEquals(sum, output[y * width + x], 1e-2, "Pixel " + x + ", " + y + " of " + width + "x" + height
+								+ (stencil.isSeparable() ? " separably" : ""));
+					}
+				}
+			}
+		}
+	}
+	
+	@Test
+	void bandsMatchWholeImage() {
+		Random random = new Random(4);
+		for (float[][] kernel : KERNELS) {
+			Stencil stencil = Stencil.of(kernel, 2, 1);
+			for (int[] size : SIZES) {
+				int width = size[0];
+				int height = size[1];
+				float[] input = randomValues(width * height, random);
+				float[] whole = new float[width * height];
+				stencil.apply(input, whole, width, height, 0, height);
+				float[] banded = new float[width * height];
+				for (int fromY = 0; fromY < height; fromY += 7)
+					stencil.apply(input, banded, width, height, fromY, Math.min(height, fromY + 7));
+				assertArrayEquals(whole, banded, width + "x" + height);
+			}
+		}
+	}
+	
+	// The 8 bit derivative2 goes through the whole number version, which has to be exact
+	@Test
+	void wholeNumbersMatchFloats() {
+		Random random = new Random(5);
+		Stencil[] stencils = { Stencil.MIXED_DIFFERENCE, Stencil.separable(new float[] {1, 2, 1}, 1, new float[] {-3, 0, 5}, 1) };
+		for (Stencil stencil : stencils) {
+			for (int[] size : SIZES) {
+				int width = size[0];
+				int height = size[1];
+				int[] input = new int[width * height];
+				float[] floatInput = new float[input.length];
+				for (int i = 0; i < input.length; i++)
+					floatInput[i] = input[i] = random.nextInt(256);
+				int[][] centers = { {width / 2, height / 2}, {0, height - 1}, {width - 1, 0} };
+				for (int[] center : centers) {
+					float[] expected = new float[input.length];
+					stencil.applyTowards(floatInput, expected, width, height, center[0], center[1], 0, height);
+					for (boolean vectorize : new boolean[] {false, true}) {
+						int[] output = new int[input.length];
+						for (int fromY = 0; fromY < height; fromY += 7)
+							stencil.applyTowards(input, output, width, height, center[0], center[1], fromY, Math.min(height, fromY + 7), vectorize);
+						for (int i = 0; i < input.length; i++) {
+							assertEquals((int) expected[i], output[i], "Pixel " + i + " of " + width + "x" + height + " toward "
+									+ center[0] + ", " + center[1] + (vectorize ? " vectorized" : ""));
+						}
+					}
+				}
+			}
+		}
+		assertThrows(IllegalStateException.class, () -> Stencil.CENTRAL_X.applyTowards(new int[4], new int[4], 2, 2, 1, 1, 0, 2, false));
+	}
+	
+	private static float[] randomValues(int count, Random random) {
+		float[] values = new float[count];
+		for (int i = 0; i < count; i++)
+			values[i] = random.nextFloat() * 255;
+		return values;
+	}
+	
+}
@@ -0,0 +1,78 @@
+package com.luneruniverse.imagecalculus;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class SummedAreaTableTest {
+	
+	private static final int[][] SIZES = { {1, 1}, {1, 9}, {9, 1}, {2, 2}, {37, 29} };
+	
+	@Test
+	void matchesBruteForce() {
+		Random random = new Random(5);
+		ExecutionOptions options = new ExecutionOptions(3);
+		for (int[] size : SIZES) {
+			int width = size[0];
+			int height = size[1];
+			PixelRaster img = ProcessorTest.randomImage(width, height, random);
+			for (Color.Type type : Color.Type.values()) {
+				for (boolean signed : new boolean[] {false, true}) {
+					SummedAreaTable table = SummedAreaTable.build(img, type, signed, options);
+					ChannelBuffer buffer = ChannelBuffer.decode(img.pixels(), width, height, type, ExecutionOptions.SERIAL);
+					if (signed)
+						Processor.toSigned(buffer, 0, width * height);
+					
+					int count = 200;
+					int[] rectangles = new int[count * 4];
+					for (int i = 0; i < count; i++) {
+						int x0 = random.nextInt(width + 1);
+						int x1 = random.nextInt(width + 1);
+						int y0 = random.nextInt(height + 1);
+						int y1 = random.nextInt(height + 1);
+						rectangles[i * 4] = Math.min(x0, x1);
+						rectangles[i * 4 + 1] = Math.min(y0, y1);
+						rectangles[i * 4 + 2] = Math.max(x0, x1);
+						rectangles[i * 4 + 3] = Math.max(y0, y1);
+					}
+					long[] sums = new long[count * ChannelBuffer.CHANNELS];
+					double[] means = new double[count * ChannelBuffer.CHANNELS];
+					table.getSums(rectangles, sums, options);
+					table.getMeans(rectangles, means, options);
+					
+					for (int i = 0; i < count; i++) {
+						int fromX = rectangles[i * 4];
+						int fromY = rectangles[i * 4 + 1];
+						int toX = rectangles[i * 4 + 2];
+						int toY = rectangles[i * 4 + 3];
+						long area = (long) (toX - fromX) * (toY - fromY);
+						for (int channel = 0; channel < ChannelBuffer.CHANNELS; channel++) {
+							long sum = 0;
+							for (int y = fromY; y < toY; y++) {
+								for (int x = fromX; x < toX; x++)
+									sum += buffer.getChannel(channel)[y * width + x];
+							}
+							String message = "Channel " + channel + " of " + fromX + ", " + fromY + " to " + toX + ", " + toY;
+							assertEquals(sum, table.getSum(channel, fromX, fromY, toX, toY), message);
+							assertEquals(sum, sums[i * ChannelBuffer.CHANNELS + channel], message);
+							if (area > 0)
+								assertEquals((double) sum / area, means[i * ChannelBuffer.CHANNELS + channel], 1e-9, message);
+						}
+					}
+				}
+			}
+		}
+	}
+	
+	@Test
+	void rejectsRectanglesOutsideOfImage() {
+		SummedAreaTable table = SummedAreaTable.build(new PixelRaster(2, 2), Color.Type.RGB, false, ExecutionOptions.SERIAL);
+		assertThrows(IllegalArgumentException.class, () -> table.getSum(0, 0, 0, 3, 1));
+		assertThrows(IllegalArgumentException.class, () -> table.getSum(0, 1, 0, 0, 2));
+		assertThrows(IllegalArgumentException.class, () -> table.getSums(new int[3], new long[3], ExecutionOptions.SERIAL));
+	}
+	
+}
@@ -0,0 +1,486 @@
+package com.luneruniverse.imagecalculus;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageIO;
+
+public class BatchProcessor {
+	
+	private static final String USAGE = """
+			Usage: ImageCalculus --output <dir> [options] <file or dir>...
+			  --output <dir>            Where to write the processed images
+			  --hsv                     Process in HSV instead of RGB
+			  --integral                Integrate instead of differentiating
+			  --derivative2             Use the type 2 derivative
+			  --slope-field             Draw a slope field
+			  --slope-field-magnitude   Color the slope field by magnitude
+			  --slope-field-stride <n>  Draw an arrow for every n-th pixel (default 1)
+			  --slope-field-cell <n>    Size of each arrow in pixels, up to 64 (default 5)
+			  --rescale                 Rescale the integral to [0, 255]
+			  --pipeline <expression>   Chain operations without keeping the images in
+			                            between, e.g. "add(src, integrate(derivative(src)))"
+			                            using derivative, derivative2, integrate and add,
+			                            or the stencils centralx, centraly, sobelx, sobely,
+			                            scharrx, scharry and laplacian
+			  --precise                 Process the images as floats, rounding only the
+			                            result to 8 bits (implied by .icr inputs)
+			  --format <name>           Output format (default png), or icr to keep the
+			                            precise result for another run
+			  --workers <n>             Images processed at once (default 1)
+			  --parallelism <n>         Threads per image (default cores / workers)
+			  --io-threads <n>          Decoding and encoding threads (default 2 each)
+			  --queue <n>               Images buffered between stages (default 2)
+			  --stream                  Read, process and write strips of rows instead of
+			                            whole images, to handle images larger than memory
+			                            (always writes PNG)
+			  --strip-height <n>        Rows per strip when streaming (default 256). 8-bit
+			                            RGB and palette PNGs are decoded once per pass, but
+			                            other images are decoded from the top for every
+			                            strip, so taller strips make those much faster
+			  --off-heap <n>            Keep intermediate results of images with at least
+			                            this many megapixels in a scratch file""";
+	
+	public static void main(String[] args) {
+		System.setProperty("java.awt.headless", "true");
+		if (Arrays.asList(args).contains("--help")) {
+			System.out.println(USAGE);
+			return;
+		}
+		BatchProcessor processor;
+		try {
+			processor = new BatchProcessor(args);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println(USAGE);
+			System.exit(2);
+			return;
+		}
+		System.exit(processor.run() ? 0 : 1);
+	}
+	
+	// Holds either an image, a raster to save as a RasterFile, or a mapped RasterFile, which stays out of the heap
+	private record Job(File input, File output, BufferedImage img, SignedRaster raster, MappedRaster mapped,
+			long pixels, long decodeNanos, long processNanos, long encodeNanos) {
+		private static final Job END = new Job(null, null, null, null, null, 0, 0, 0, 0);
+	}
+	
+	
+	private final List<File> inputs;
+	private final List<File> outputs;
+	private File outputDir;
+	private Color.Type type;
+	private boolean integral;
+	private boolean derivative2;
+	private boolean slopeField;
+	private boolean slopeFieldMagnitude;
+	private int slopeFieldStride;
+	private int slopeFieldCellSize;
+	private boolean rescale;
+	private String pipeline;
+	private boolean precise;
+	private String format;
+	private int workers;
+	private int parallelism;
+	private int ioThreads;
+	private int queueSize;
+	private boolean stream;
+	private int stripHeight;
+	private long offHeapPixels;
+	
+	private final AtomicInteger nextInput;
+	private final ConcurrentLinkedQueue<String> failures;
+	private final AtomicBoolean stopped;
+	
+	public BatchProcessor(String[] args) {
+		inputs = new ArrayList<>();
+		outputs = new ArrayList<>();
+		type = Color.Type.RGB;
+		format = "png";
+		workers = 1;
+		ioThreads = 2;
+		queueSize = 2;
+		stripHeight = 256;
+		slopeFieldStride = SlopeField.DEFAULT_STRIDE;
+		slopeFieldCellSize = SlopeField.DEFAULT_CELL_SIZE;
+		offHeapPixels = Long.MAX_VALUE;
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i]) {
+				case "--output" -> outputDir = new File(getValue(args, ++i));
+				case "--hsv" -> type = Color.Type.HSV;
+				case "--integral" -> integral = true;
+				case "--derivative2" -> derivative2 = true;
+				case "--slope-field" -> slopeField = true;
+				case "--slope-field-magnitude" -> slopeFieldMagnitude = true;
+				case "--slope-field-stride" -> slopeFieldStride = getPositive(args, ++i);
+				case "--slope-field-cell" -> slopeFieldCellSize = getPositive(args, ++i);
+				case "--rescale" -> rescale = true;
+				case "--pipeline" -> pipeline = getValue(args, ++i);
+				case "--precise" -> precise = true;
+				case "--format" -> format = getValue(args, ++i);
+				case "--workers" -> workers = getPositive(args, ++i);
+				case "--parallelism" -> parallelism = getPositive(args, ++i);
+				case "--io-threads" -> ioThreads = getPositive(args, ++i);
+				case "--queue" -> queueSize = getPositive(args, ++i);
+				case "--stream" -> stream = true;
+				case "--strip-height" -> stripHeight = getPositive(args, ++i);
+				case "--off-heap" -> offHeapPixels = getPositive(args, ++i) * 1_000_000L;
+				default -> {
+					if (args[i].startsWith("--"))
+						throw new IllegalArgumentException("Unknown option: " + args[i]);
+					addInput(new File(args[i]));
+				}
+			}
+		}
+		if (outputDir == null)
+			throw new IllegalArgumentException("Missing --output");
+		if (inputs.isEmpty())
+			throw new IllegalArgumentException("No input images");
+		if (stream && !format.equals("png"))
+			throw new IllegalArgumentException("Streaming only writes PNG");
+		if (stream && pipeline != null)
+			throw new IllegalArgumentException("Pipelines can't be streamed");
+		if (format.equals(RasterFile.EXTENSION))
+			precise = true;
+		if (precise && stream)
+			throw new IllegalArgumentException("Precise images can't be streamed");
+		if (precise && slopeField)
+			throw new IllegalArgumentException("Slope fields can't be drawn precisely");
+		ImageSettings settings = getSettings();
+		if (pipeline != null)
+			Pipeline.parse(pipeline, Pipeline.source(new PixelRaster(1, 1)), settings);
+		if (parallelism == 0)
+			parallelism = Math.max(1, Runtime.getRuntime().availableProcessors() / workers);
+		nextInput = new AtomicInteger();
+		failures = new ConcurrentLinkedQueue<>();
+		stopped = new AtomicBoolean();
+	}
+	private static String getValue(String[] args, int i) {
+		if (i >= args.length)
+			throw new IllegalArgumentException("Missing value for " + args[i - 1]);
+		return args[i];
+	}
+	private static int getPositive(String[] args, int i) {
+		String value = getValue(args, i);
+		try {
+			int output = Integer.parseInt(value);
+			if (output > 0)
+				return output;
+		} catch (NumberFormatException e) {}
+		throw new IllegalArgumentException("Expected a positive number for " + args[i - 1] + ": " + value);
+	}
+	private void addInput(File file) {
+		if (!file.exists())
+			throw new IllegalArgumentException("No such file: " + file);
+		if (file.isDirectory()) {
+			File[] files = file.listFiles();
+			if (files == null)
+				return;
+			Arrays.sort(files);
+			for (File child : files) {
+				if (child.isFile())
+					inputs.add(child);
+			}
+		} else
+			inputs.add(file);
+	}
+	
+	public ImageSettings getSettings() {
+		return new ImageSettings(type, integral, derivative2, slopeField, slopeFieldMagnitude, rescale, slopeFieldStride, slopeFieldCellSize);
+	}
+	
+	public boolean run() {
+		if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+			System.err.println("Unable to create " + outputDir);
+			return false;
+		}
+		claimOutputs();
+		BlockingQueue<Job> decoded = new ArrayBlockingQueue<>(queueSize);
+		BlockingQueue<Job> processed = new ArrayBlockingQueue<>(queueSize);
+		ImageSettings settings = getSettings();
+		ExecutionOptions options = new ExecutionOptions(parallelism).withOffHeapPixels(offHeapPixels);
+		
+		long start = System.nanoTime();
+		List<Thread> threads = new ArrayList<>();
+		AtomicInteger decoders = new AtomicInteger(ioThreads);
+		AtomicInteger processors = new AtomicInteger(workers);
+		AtomicInteger encoders = new AtomicInteger(ioThreads);
+		List<Job> done = Collections.synchronizedList(new ArrayList<>());
+		if (stream) {
+			for (int i = 0; i < workers; i++)
+				threads.add(startStage("Streamer " + i, () -> stream(settings, options, done), null, processors, 0));
+		} else {
+			for (int i = 0; i < ioThreads; i++)
+				threads.add(startStage("Decoder " + i, () -> decode(decoded), decoded, decoders, workers));
+			for (int i = 0; i < workers; i++)
+				threads.add(startStage("Processor " + i, () -> process(decoded, processed, settings, options), processed, processors, ioThreads));
+			for (int i = 0; i < ioThreads; i++)
+				threads.add(startStage("Encoder " + i, () -> encode(processed, done), null, encoders, 0));
+		}
+		for (Thread thread : threads) {
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+		// Once stopped, jobs can be left behind in the queues
+		for (Job job : decoded)
+			discard(job);
+		for (Job job : processed)
+			discard(job);
+		report(done, System.nanoTime() - start);
+		return failures.isEmpty() && !stopped.get();
+	}
+	
+	private interface Stage {
+		public void run() throws InterruptedException;
+	}
+	// The last thread of a stage to finish tells every thread of the next stage to stop. A thread that dies
+	// stops every stage, since the ones before it would otherwise wait on it forever.
+	private Thread startStage(String name, Stage stage, BlockingQueue<Job> next, AtomicInteger remaining, int nextThreads) {
+		Thread thread = new Thread(() -> {
+			try {
+				stage.run();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (Throwable e) {
+				stopped.set(true);
+				failures.add(name + " stopped: " + e);
+				System.err.println(name + " stopped: " + e);
+			} finally {
+				if (remaining.decrementAndGet() == 0 && next != null) {
+					try {
+						for (int i = 0; i < nextThreads; i++)
+							put(next, Job.END);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			}
+		}, "Batch " + name);
+		thread.start();
+		return thread;
+	}
+	// Returns false once the batch has stopped
+	private boolean put(BlockingQueue<Job> queue, Job job) throws InterruptedException {
+		while (!queue.offer(job, 100, TimeUnit.MILLISECONDS)) {
+			if (stopped.get())
+				return false;
+		}
+		return true;
+	}
+	// Returns END once the batch has stopped
+	private Job take(BlockingQueue<Job> queue) throws InterruptedException {
+		Job job;
+		while ((job = queue.poll(100, TimeUnit.MILLISECONDS)) == null) {
+			if (stopped.get())
+				return Job.END;
+		}
+		return job;
+	}
+	
+	private void decode(BlockingQueue<Job> decoded) throws InterruptedException {
+		int i;
+		while ((i = nextInput.getAndIncrement()) < inputs.size() && !stopped.get()) {
+			File input = inputs.get(i);
+			File output = outputs.get(i);
+			if (output == null)
+				continue;
+			long start = System.nanoTime();
+			Job job;
+			try {
+				if (RasterFile.isRasterFile(input.toPath())) {
+					MappedRaster raster = RasterFile.map(input.toPath());
+					if (raster.getType() != type) {
+						raster.close();
+						fail(input, "Saved as " + raster.getType() + " rather than " + type);
+						continue;
+					}
+					job = new Job(input, output, null, null, raster, raster.getPixelCount(), System.nanoTime() - start, 0, 0);
+				} else {
+					BufferedImage img = ImageIO.read(input);
+					if (img == null) {
+						fail(input, "Unsupported image format");
+						continue;
+					}
+					long pixels = (long) img.getWidth() * img.getHeight();
+					job = new Job(input, output, img, null, null, pixels, System.nanoTime() - start, 0, 0);
+				}
+			} catch (Throwable e) {
+				fail(input, e.toString());
+				continue;
+			}
+			if (!put(decoded, job)) {
+				discard(job);
+				return;
+			}
+		}
+	}
+	
+	private void process(BlockingQueue<Job> decoded, BlockingQueue<Job> processed, ImageSettings settings, ExecutionOptions options) throws InterruptedException {
+		Job job;
+		while ((job = take(decoded)) != Job.END) {
+			long start = System.nanoTime();
+			Job processedJob;
+			try {
+				if (job.mapped() != null) {
+					MappedRaster output;
+					try (MappedRaster raster = job.mapped()) {
+						output = (pipeline == null ? Processor.process(raster, settings, options) :
+								Processor.evaluate(pipeline, raster, settings, options));
+					}
+					if (format.equals(RasterFile.EXTENSION))
+						processedJob = new Job(job.input(), job.output(), null, null, output, job.pixels(), job.decodeNanos(), System.nanoTime() - start, 0);
+					else {
+						try (output) {
+							processedJob = new Job(job.input(), job.output(), Pixels.toImage(output.encode(options)), null, null,
+									job.pixels(), job.decodeNanos(), System.nanoTime() - start, 0);
+						}
+					}
+				} else if (precise) {
+					SignedRaster raster = SignedRaster.decode(Pixels.toRaster(job.img()), type, options);
+					SignedRaster output = (pipeline == null ? Processor.process(raster, settings, options) :
+							Processor.evaluate(pipeline, raster, settings, options));
+					if (format.equals(RasterFile.EXTENSION))
+						processedJob = new Job(job.input(), job.output(), null, output, null, job.pixels(), job.decodeNanos(), System.nanoTime() - start, 0);
+					else {
+						processedJob = new Job(job.input(), job.output(), Pixels.toImage(output.encode(type, options)), null, null,
+								job.pixels(), job.decodeNanos(), System.nanoTime() - start, 0);
+					}
+				} else {
+					PixelRaster img = Pixels.toRaster(job.img());
+					PixelRaster output = (pipeline == null ? Processor.process(img, settings, options) :
+							Pipeline.parse(pipeline, Pipeline.source(img), settings).render(options));
+					processedJob = new Job(job.input(), job.output(), Pixels.toImage(output), null, null, job.pixels(), job.decodeNanos(), System.nanoTime() - start, 0);
+				}
+			} catch (Throwable e) { // Including running out of memory, which only this image needed
+				fail(job.input(), e.toString());
+				continue;
+			}
+			if (!put(processed, processedJob)) {
+				discard(processedJob);
+				return;
+			}
+		}
+	}
+	
+	private void encode(BlockingQueue<Job> processed, List<Job> done) throws InterruptedException {
+		Job job;
+		while ((job = take(processed)) != Job.END) {
+			long start = System.nanoTime();
+			try {
+				if (job.mapped() != null) {
+					try (MappedRaster raster = job.mapped();
+							MappedRaster file = RasterFile.create(job.output().toPath(), raster.getWidth(), raster.getHeight(), raster.isSigned(), type)) {
+						raster.copyTo(file, ExecutionOptions.DEFAULT);
+					}
+				} else if (job.raster() != null)
+					new RasterFile(job.raster(), type).write(job.output().toPath(), ExecutionOptions.DEFAULT);
+				else if (!ImageExporter.write(job.img(), format, job.output(), ImageExporter.Compression.DEFAULT)) {
+					fail(job.input(), "No writer for " + format);
+					continue;
+				}
+				Job finished = new Job(job.input(), job.output(), null, null, null, job.pixels(), job.decodeNanos(), job.processNanos(), System.nanoTime() - start);
+				done.add(finished);
+				System.out.println(String.format(Locale.ROOT, "%s: decode %.1f ms, process %.1f ms, encode %.1f ms",
+						job.input(), finished.decodeNanos() / 1e6, finished.processNanos() / 1e6, finished.encodeNanos() / 1e6));
+			} catch (Throwable e) {
+				fail(job.input(), e.toString());
+			}
+		}
+	}
+	
+	private void stream(ImageSettings settings, ExecutionOptions options, List<Job> done) {
+		int i;
+		while ((i = nextInput.getAndIncrement()) < inputs.size() && !stopped.get()) {
+			File input = inputs.get(i);
+			File output = outputs.get(i);
+			if (output == null)
+				continue;
+			long start = System.nanoTime();
+			try {
+				long pixels = StreamingProcessor.process(input, output, settings, stripHeight, options);
+				Job finished = new Job(input, output, null, null, null, pixels, 0, System.nanoTime() - start, 0);
+				done.add(finished);
+				System.out.println(String.format(Locale.ROOT, "%s: streamed in %.1f ms", input, finished.processNanos() / 1e6));
+			} catch (Throwable e) {
+				fail(input, e.toString());
+			}
+		}
+	}
+	
+	// Inputs that share a name with an earlier one, such as x.png and x.bmp, fail instead of overwriting its output
+	private void claimOutputs() {
+		Map<File, File> claimed = new HashMap<>();
+		outputs.clear();
+		for (File input : inputs) {
+			File output = getOutput(input);
+			File other = claimed.putIfAbsent(output.getAbsoluteFile(), input);
+			if (other != null) {
+				fail(input, "Would overwrite the output of " + other + " at " + output);
+				output = null;
+			}
+			outputs.add(output);
+		}
+	}
+	private File getOutput(File input) {
+		String name = input.getName();
+		int lastDot = name.lastIndexOf('.');
+		return new File(outputDir, (lastDot == -1 ? name : name.substring(0, lastDot)) + "." + format);
+	}
+	
+	// Closes the mapped file of a job that won't reach the encoder, which also deletes a temporary one
+	private void discard(Job job) {
+		if (job.mapped() == null)
+			return;
+		try {
+			job.mapped().close();
+		} catch (IOException e) {
+			fail(job.input(), e.toString());
+		}
+	}
+	
+	private void fail(File input, String reason) {
+		failures.add(input + ": " + reason);
+		System.err.println(input + ": " + reason);
+	}
+	
+	private void report(List<Job> done, long nanos) {
+		long pixels = 0;
+		long decodeNanos = 0;
+		long processNanos = 0;
+		long encodeNanos = 0;
+		for (Job job : done) {
+			pixels += job.pixels();
+			decodeNanos += job.decodeNanos();
+			processNanos += job.processNanos();
+			encodeNanos += job.encodeNanos();
+		}
+		double seconds = nanos / 1e9;
+		System.out.println(String.format(Locale.ROOT, "Processed %d of %d images in %.2f s: %.2f images/s, %.2f MP/s",
+				done.size(), inputs.size(), seconds, done.size() / seconds, pixels / 1e6 / seconds));
+		if (!stream) {
+			System.out.println(String.format(Locale.ROOT, "Time spent: decode %.2f s, process %.2f s, encode %.2f s",
+					decodeNanos / 1e9, processNanos / 1e9, encodeNanos / 1e9));
+		}
+		if (!failures.isEmpty())
+			System.out.println(failures.size() + " failed");
+	}
+	
+}
@@ -1,5 +1,6 @@
 package com.luneruniverse.imagecalculus;
 
+import java.awt.BorderLayout;
 import java.awt.Component;
 import java.awt.FlowLayout;
 import java.awt.datatransfer.DataFlavor;
@@ -12,9 +13,15 @@ import java.awt.event.MouseListener;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
-import javax.imageio.ImageIO;
+import javax.swing.BorderFactory;
+import javax.swing.ButtonGroup;
 import javax.swing.JCheckBoxMenuItem;
 import javax.swing.JFileChooser;
 import javax.swing.JFrame;
@@ -23,24 +30,41 @@ import javax.swing.JMenu;
 import javax.swing.JMenuBar;
 import javax.swing.JMenuItem;
 import javax.swing.JPanel;
+import javax.swing.JRadioButtonMenuItem;
 import javax.swing.JTabbedPane;
+import javax.swing.SwingUtilities;
 import javax.swing.filechooser.FileFilter;
 
 public class ImageCalculus {
 	
+	private static final int PREVIEW_SIZE = 750;
+	
 	public static void main(String[] args) {
-		new ImageCalculus();
+		if (args.length > 0 && args[0].equals("--serve"))
+			ProcessingServer.main(Arrays.copyOfRange(args, 1, args.length));
+		else if (args.length > 0)
+			BatchProcessor.main(args);
+		else
+			new ImageCalculus();
 	}
 	
 	private final JFrame window;
+	private final ExecutorService executor;
+	private final ResultCache cache;
+	private final ImageLoader loader;
 	private final JTabbedPane tabs;
+	private final JLabel statusBar;
 	private final JMenuItem fileMenuCloseImage;
 	private Color.Type type;
 	private boolean integral;
 	private boolean derivative2;
 	private boolean slopeField;
 	private boolean slopeFieldMagnitude;
+	private int slopeFieldStride;
+	private int slopeFieldCellSize;
 	private boolean rescale;
+	private boolean previews;
+	private boolean progressive;
 	
 	@SuppressWarnings("serial")
 	public ImageCalculus() {
@@ -49,9 +73,22 @@ public class ImageCalculus {
 		window.setSize(1000, 750);
 		window.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
 		
+		executor = Executors.newCachedThreadPool(task -> {
+			Thread thread = new Thread(task, "Image Calculus Processor");
+			thread.setDaemon(true);
+			return thread;
+		});
+		cache = new ResultCache(Runtime.getRuntime().maxMemory() / 4);
+		loader = new ImageLoader(Runtime.getRuntime().availableProcessors());
+		
 		tabs = new JTabbedPane();
 		window.add(tabs);
 		
+		statusBar = new JLabel(" ");
+		statusBar.setBorder(BorderFactory.createEmptyBorder(2, 6, 2, 6));
+		window.add(statusBar, BorderLayout.SOUTH);
+		ProcessingMetrics.INSTANCE.addListener(run -> SwingUtilities.invokeLater(this::updateStatusBar));
+		
 		// --- Menu Bar ---
 		JMenuBar bar = new JMenuBar();
 		window.setJMenuBar(bar);
@@ -59,6 +96,8 @@ public class ImageCalculus {
 		JMenu fileMenu = new JMenu("File");
 		JMenuItem fileMenuLoadImage = new JMenuItem("Load Image");
 		fileMenuCloseImage = new JMenuItem("Close Image");
+		JMenuItem fileMenuPreviews = new JCheckBoxMenuItem("Quick Previews");
+		JMenuItem fileMenuProgressive = new JCheckBoxMenuItem("Progressive Processing", true);
 		bar.add(fileMenu);
 		
 		JMenu controlsMenu = new JMenu("Controls");
@@ -71,6 +110,8 @@ public class ImageCalculus {
 		JMenuItem derivativeMenuType2 = new JCheckBoxMenuItem("Type 2");
 		JMenuItem derivativeMenuSlopeField = new JCheckBoxMenuItem("Slope Field");
 		JMenuItem derivativeMenuSlopeFieldMagnitude = new JCheckBoxMenuItem("Slope Field Magnitude Colors");
+		JMenu derivativeMenuSlopeFieldStride = new JMenu("Slope Field Sampling");
+		JMenu derivativeMenuSlopeFieldCellSize = new JMenu("Slope Field Arrow Size");
 		bar.add(derivativeMenu);
 		
 		JMenu integralMenu = new JMenu("Integral");
@@ -83,14 +124,18 @@ public class ImageCalculus {
 		fileMenuLoadImage.addActionListener(e -> onLoadImageAction());
 		fileMenu.add(fileMenuLoadImage);
 		
-		fileMenuCloseImage.addActionListener(e -> {
-			tabs.remove(tabs.getSelectedIndex());
-			if (tabs.getSelectedIndex() == -1)
-				fileMenuCloseImage.setEnabled(false);
-		});
+		fileMenuCloseImage.addActionListener(e -> closeTab(tabs.getSelectedIndex()));
 		fileMenuCloseImage.setEnabled(false);
 		fileMenu.add(fileMenuCloseImage);
 		
+		previews = false;
+		fileMenuPreviews.addActionListener(e -> previews = !previews);
+		fileMenu.add(fileMenuPreviews);
+		
+		progressive = true;
+		fileMenuProgressive.addActionListener(e -> progressive = !progressive);
+		fileMenu.add(fileMenuProgressive);
+		
 		// Controls Menu
 		type = Color.Type.RGB;
 		controlsMenuChangeType.addActionListener(e -> {
@@ -122,6 +167,8 @@ public class ImageCalculus {
 			derivative2 = !derivative2;
 			derivativeMenuSlopeField.setEnabled(!derivative2);
 			derivativeMenuSlopeFieldMagnitude.setEnabled(!derivative2 && slopeField);
+			derivativeMenuSlopeFieldStride.setEnabled(!derivative2 && slopeField);
+			derivativeMenuSlopeFieldCellSize.setEnabled(!derivative2 && slopeField);
 		});
 		derivativeMenu.add(derivativeMenuType2);
 		
@@ -129,6 +176,8 @@ public class ImageCalculus {
 		derivativeMenuSlopeField.addActionListener(e -> {
 			slopeField = !slopeField;
 			derivativeMenuSlopeFieldMagnitude.setEnabled(slopeField);
+			derivativeMenuSlopeFieldStride.setEnabled(slopeField);
+			derivativeMenuSlopeFieldCellSize.setEnabled(slopeField);
 		});
 		derivativeMenu.add(derivativeMenuSlopeField);
 		
@@ -137,6 +186,28 @@ public class ImageCalculus {
 		derivativeMenuSlopeFieldMagnitude.setEnabled(false);
 		derivativeMenu.add(derivativeMenuSlopeFieldMagnitude);
 		
+		slopeFieldStride = SlopeField.DEFAULT_STRIDE;
+		ButtonGroup strideGroup = new ButtonGroup();
+		for (int stride : new int[] {1, 2, 4, 8, 16}) {
+			JMenuItem item = new JRadioButtonMenuItem(stride == 1 ? "Every Pixel" : "Every " + stride + " Pixels", stride == slopeFieldStride);
+			item.addActionListener(e -> slopeFieldStride = stride);
+			strideGroup.add(item);
+			derivativeMenuSlopeFieldStride.add(item);
+		}
+		derivativeMenuSlopeFieldStride.setEnabled(false);
+		derivativeMenu.add(derivativeMenuSlopeFieldStride);
+		
+		slopeFieldCellSize = SlopeField.DEFAULT_CELL_SIZE;
+		ButtonGroup cellSizeGroup = new ButtonGroup();
+		for (int cellSize : new int[] {3, 5, 9, 17}) {
+			JMenuItem item = new JRadioButtonMenuItem(cellSize + " Pixels", cellSize == slopeFieldCellSize);
+			item.addActionListener(e -> slopeFieldCellSize = cellSize);
+			cellSizeGroup.add(item);
+			derivativeMenuSlopeFieldCellSize.add(item);
+		}
+		derivativeMenuSlopeFieldCellSize.setEnabled(false);
+		derivativeMenu.add(derivativeMenuSlopeFieldCellSize);
+		
 		// Integral Menu
 		rescale = false;
 		integralMenuRescale.addActionListener(e -> rescale = !rescale);
@@ -206,27 +277,53 @@ public class ImageCalculus {
 				return true;
 			}
 		});
+		chooser.setMultiSelectionEnabled(true);
 		chooser.setVisible(true);
 		if (chooser.showOpenDialog(window) == JFileChooser.APPROVE_OPTION) {
-			try {
-				loadImage(chooser.getSelectedFile());
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
+			for (File file : chooser.getSelectedFiles())
+				loadImage(file);
 		}
 	}
 	
 	public ImageSettings getSettings() {
-		return new ImageSettings(type, integral, derivative2, slopeField, slopeFieldMagnitude, rescale);
+		return new ImageSettings(type, integral, derivative2, slopeField, slopeFieldMagnitude, rescale, slopeFieldStride, slopeFieldCellSize);
 	}
 	
-	public void loadImage(File file) throws IOException {
-		loadImage(file.getName(), ImageIO.read(file));
+	// Decoded by the loader, with a subsampled preview first if they're enabled
+	public void loadImage(File file) {
+		Future<BufferedImage> img = loader.load(file);
+		Future<BufferedImage> preview = (previews ? loader.loadPreview(file, PREVIEW_SIZE) : null);
+		addTab(file.getName(), new ImagePanel(this, file.getName(), preview == null ? null : preview::get, img::get, getSettings()));
 	}
 	public void loadImage(String name, BufferedImage img) {
+		loadImage(name, () -> img);
+	}
+	public void loadImage(String name, Callable<BufferedImage> img) {
 		addTab(name, new ImagePanel(this, name, img, getSettings()));
 	}
 	
+	public boolean isProgressive() {
+		return progressive;
+	}
+	public ExecutorService getExecutor() {
+		return executor;
+	}
+	public ResultCache getCache() {
+		return cache;
+	}
+	
+	// Shows the latest run, with the ones before it in the tooltip
+	private void updateStatusBar() {
+		List<ProcessingMetrics.Run> runs = ProcessingMetrics.INSTANCE.getRuns();
+		if (runs.isEmpty())
+			return;
+		statusBar.setText(runs.get(runs.size() - 1) + " | Cache: " + cache.getHits() + " hits, " + cache.getMisses() + " misses");
+		StringBuilder history = new StringBuilder("<html>");
+		for (int i = Math.max(0, runs.size() - 10); i < runs.size(); i++)
+			history.append(runs.get(i)).append("<br>");
+		statusBar.setToolTipText(history.append("</html>").toString());
+	}
+	
 	private void addTab(String name, Component content) {
 		tabs.addTab(name, content);
 		JPanel tabName = new JPanel(new FlowLayout(FlowLayout.CENTER, 0, 0));
@@ -236,9 +333,7 @@ public class ImageCalculus {
 		closeBtn.addMouseListener(new MouseListener() {
 			@Override
 			public void mouseClicked(MouseEvent e) {
-				tabs.remove(tabs.indexOfTabComponent(tabName));
-				if (tabs.getSelectedIndex() == -1)
-					fileMenuCloseImage.setEnabled(false);
+				closeTab(tabs.indexOfTabComponent(tabName));
 			}
 			@Override
 			public void mousePressed(MouseEvent e) {}
@@ -257,5 +352,12 @@ public class ImageCalculus {
 		tabs.setTabComponentAt(tabs.getTabCount() - 1, tabName);
 		fileMenuCloseImage.setEnabled(true);
 	}
+	private void closeTab(int index) {
+		if (tabs.getComponentAt(index) instanceof ImagePanel panel)
+			panel.cancel();
+		tabs.remove(index);
+		if (tabs.getSelectedIndex() == -1)
+			fileMenuCloseImage.setEnabled(false);
+	}
 	
 }
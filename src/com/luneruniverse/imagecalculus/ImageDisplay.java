@@ -2,62 +2,205 @@ package com.luneruniverse.imagecalculus;
 
 import java.awt.Graphics;
 import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
+import java.awt.event.MouseMotionListener;
+import java.awt.event.MouseWheelEvent;
+import java.awt.event.MouseWheelListener;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.Executor;
 
-import javax.imageio.ImageIO;
+import javax.swing.JComboBox;
 import javax.swing.JComponent;
 import javax.swing.JFileChooser;
+import javax.swing.JLabel;
 import javax.swing.JOptionPane;
+import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
 
+// Shows an image stretched over the component, zoomed with the mouse wheel and panned by dragging.
+// Painting only draws the visible part, from a mip pyramid level with just enough detail for the zoom,
+// and the levels are built in the background the first time the image is painted.
 @SuppressWarnings("serial")
-public class ImageDisplay extends JComponent implements MouseListener {
+public class ImageDisplay extends JComponent implements MouseListener, MouseMotionListener, MouseWheelListener {
+	
+	private static final double ZOOM_STEP = 1.25;
+	private static final int MAX_PIXEL_SIZE = 32;
 	
 	private final BufferedImage img;
 	private final int width;
 	private final int height;
+	private final Executor executor;
+	// Level n is 2^n times smaller than the image, and is null until it has been built
+	private final BufferedImage[] levels;
+	private volatile boolean removed;
+	private boolean building;
+	private double zoom;
+	private double viewX;
+	private double viewY;
+	private int dragX;
+	private int dragY;
 	
-	public ImageDisplay(BufferedImage img, int width, int height) {
+	public ImageDisplay(BufferedImage img, int width, int height, Executor executor) {
 		this.img = img;
 		this.width = width;
 		this.height = height;
+		this.executor = executor;
+		double scale = Math.min((double) width / img.getWidth(), (double) height / img.getHeight());
+		this.levels = new BufferedImage[Math.max(1, 1 + (int) Math.floor(-Math.log(scale) / Math.log(2)))];
+		this.levels[0] = img;
+		this.zoom = 1;
 		setSize(width, height);
 		setPreferredSize(getSize());
 		addMouseListener(this);
+		addMouseMotionListener(this);
+		addMouseWheelListener(this);
 	}
 	
 	@Override
 	protected void paintComponent(Graphics g) {
 		super.paintComponent(g);
-		g.drawImage(img, 0, 0, width, height, null);
+		if (!building && levels.length > 1) {
+			building = true;
+			executor.execute(this::buildLevels);
+		}
+		
+		double scaleX = getScaleX();
+		double scaleY = getScaleY();
+		BufferedImage level = getLevel(Math.min(scaleX, scaleY));
+		double levelScaleX = (double) level.getWidth() / img.getWidth();
+		double levelScaleY = (double) level.getHeight() / img.getHeight();
+		Rectangle clip = g.getClipBounds();
+		if (clip == null)
+			clip = new Rectangle(0, 0, width, height);
+		
+		int sx1 = Math.max(0, (int) Math.floor((viewX + clip.x / scaleX) * levelScaleX));
+		int sy1 = Math.max(0, (int) Math.floor((viewY + clip.y / scaleY) * levelScaleY));
+		int sx2 = Math.min(level.getWidth(), (int) Math.ceil((viewX + (clip.x + clip.width) / scaleX) * levelScaleX));
+		int sy2 = Math.min(level.getHeight(), (int) Math.ceil((viewY + (clip.y + clip.height) / scaleY) * levelScaleY));
+		if (sx1 >= sx2 || sy1 >= sy2)
+			return;
+		Graphics2D g2 = (Graphics2D) g.create();
+		if (scaleX < 1 || scaleY < 1)
+			g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+		g2.drawImage(level,
+				(int) Math.round((sx1 / levelScaleX - viewX) * scaleX), (int) Math.round((sy1 / levelScaleY - viewY) * scaleY),
+				(int) Math.round((sx2 / levelScaleX - viewX) * scaleX), (int) Math.round((sy2 / levelScaleY - viewY) * scaleY),
+				sx1, sy1, sx2, sy2, null);
+		g2.dispose();
+	}
+	
+	private double getScaleX() {
+		return zoom * width / img.getWidth();
+	}
+	private double getScaleY() {
+		return zoom * height / img.getHeight();
+	}
+	
+	// The smallest level that still has a pixel for every pixel on the screen, or the closest one built so far
+	private BufferedImage getLevel(double scale) {
+		int level = Math.min(levels.length - 1, Math.max(0, (int) Math.floor(-Math.log(scale) / Math.log(2))));
+		while (levels[level] == null)
+			level--;
+		return levels[level];
+	}
+	
+	private void buildLevels() {
+		BufferedImage level = img;
+		for (int i = 1; i < levels.length && !removed; i++) {
+			level = downsample(level);
+			int index = i;
+			BufferedImage output = level;
+			SwingUtilities.invokeLater(() -> {
+				levels[index] = output;
+				repaint();
+			});
+		}
+	}
+	private static BufferedImage downsample(BufferedImage img) {
+		return Pixels.toImage(Processor.downsample(Pixels.toRaster(img), 2, ExecutionOptions.DEFAULT));
 	}
 	
+	@Override
+	public void removeNotify() {
+		super.removeNotify();
+		removed = true;
+	}
+	
+	// Keeps the view inside of the image
+	private void setView(double zoom, double viewX, double viewY) {
+		this.zoom = zoom;
+		this.viewX = Math.max(0, Math.min(viewX, img.getWidth() - img.getWidth() / this.zoom));
+		this.viewY = Math.max(0, Math.min(viewY, img.getHeight() - img.getHeight() / this.zoom));
+		repaint();
+	}
+	
+	// Zooms around the cursor, so the pixel under it stays put
+	@Override
+	public void mouseWheelMoved(MouseWheelEvent event) {
+		double x = viewX + event.getX() / getScaleX();
+		double y = viewY + event.getY() / getScaleY();
+		double maxZoom = MAX_PIXEL_SIZE * Math.max((double) img.getWidth() / width, (double) img.getHeight() / height);
+		double zoom = Math.max(1, Math.min(this.zoom * Math.pow(ZOOM_STEP, -event.getPreciseWheelRotation()), maxZoom));
+		setView(zoom, x - event.getX() / (zoom * width / img.getWidth()), y - event.getY() / (zoom * height / img.getHeight()));
+	}
+	
+	@Override
+	public void mouseDragged(MouseEvent event) {
+		setView(zoom, viewX - (event.getX() - dragX) / getScaleX(), viewY - (event.getY() - dragY) / getScaleY());
+		dragX = event.getX();
+		dragY = event.getY();
+	}
+	
+	@Override
+	public void mouseMoved(MouseEvent event) {}
+	
 	@Override
 	public void mouseClicked(MouseEvent event) {
 		JFileChooser chooser = new JFileChooser();
+		JComboBox<ImageExporter.Compression> compression = new JComboBox<>(ImageExporter.Compression.values());
+		JPanel options = new JPanel();
+		options.add(new JLabel("Compression:"));
+		options.add(compression);
+		chooser.setAccessory(options);
 		if (chooser.showSaveDialog(this) == JFileChooser.APPROVE_OPTION) {
 			File file = chooser.getSelectedFile();
 			if (!file.exists() || JOptionPane.showConfirmDialog(this, file.getName() + " already exists! Overwrite?",
 					"Warning", JOptionPane.OK_CANCEL_OPTION, JOptionPane.WARNING_MESSAGE) == JOptionPane.OK_OPTION) {
 				int lastDot = file.getName().lastIndexOf('.');
-				try {
-					BufferedImage noAlphaImg = new BufferedImage(img.getWidth(), img.getHeight(), BufferedImage.TYPE_INT_RGB);
-					Graphics2D g = noAlphaImg.createGraphics();
-					g.drawImage(img, 0, 0, null);
-					g.dispose();
-					ImageIO.write(noAlphaImg, lastDot == -1 ? "png" : file.getName().substring(lastDot + 1), file);
-				} catch (IOException e) {
-					e.printStackTrace();
-				}
+				String format = (lastDot == -1 ? "png" : file.getName().substring(lastDot + 1));
+				ImageExporter.Compression selected = (ImageExporter.Compression) compression.getSelectedItem();
+				executor.execute(() -> save(file, format, selected));
 			}
 		}
 	}
+	private void save(File file, String format, ImageExporter.Compression compression) {
+		String error;
+		try {
+			// Only batch runs keep the precise values, while the tabs show 8 bit results
+			if (format.equalsIgnoreCase(RasterFile.EXTENSION))
+				error = "Only --precise batch runs can save ." + RasterFile.EXTENSION + " files";
+			else if (ImageExporter.write(img, format, file, compression))
+				return;
+			else
+				error = "No writer for " + format;
+		} catch (IOException | RuntimeException e) {
+			e.printStackTrace();
+			error = e.toString();
+		}
+		String message = "Unable to save " + file.getName() + ": " + error;
+		SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(this, message, "Error", JOptionPane.ERROR_MESSAGE));
+	}
 	
 	@Override
-	public void mousePressed(MouseEvent e) {}
+	public void mousePressed(MouseEvent event) {
+		dragX = event.getX();
+		dragY = event.getY();
+	}
 	
 	@Override
 	public void mouseReleased(MouseEvent e) {}
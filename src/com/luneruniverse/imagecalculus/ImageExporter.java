@@ -0,0 +1,100 @@
+package com.luneruniverse.imagecalculus;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.zip.Deflater;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+// Saves images without their alpha channel. PNGs go through PNGStripWriter straight from the packed pixels,
+// and other formats get a view of the pixels that ignores the alpha byte, so the image is never redrawn.
+public class ImageExporter {
+	
+	// Qualities follow ImageWriteParam, where 0 compresses the most and 1 the least
+	public enum Compression {
+		DEFAULT("Default", -1, 4), // The level ImageIO uses for PNGs
+		SMALLEST("Smallest", 0, Deflater.BEST_COMPRESSION),
+		FAST("Fast", 0.75F, Deflater.BEST_SPEED),
+		NONE("None", 1, Deflater.NO_COMPRESSION);
+		
+		private final String name;
+		private final float quality;
+		private final int deflateLevel;
+		
+		private Compression(String name, float quality, int deflateLevel) {
+			this.name = name;
+			this.quality = quality;
+			this.deflateLevel = deflateLevel;
+		}
+		
+		@Override
+		public String toString() {
+			return name;
+		}
+	}
+	
+	// Returns false if there is no writer for the format
+	public static boolean write(BufferedImage img, String format, File file, Compression compression) throws IOException {
+		if (format.toLowerCase(Locale.ROOT).equals("png")) {
+			try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+					PNGStripWriter writer = new PNGStripWriter(out, img.getWidth(), img.getHeight(), compression.deflateLevel)) {
+				writer.writeRows(Pixels.of(img), 0, img.getHeight());
+			} catch (Throwable e) {
+				file.delete(); // Rather than leave a truncated image
+				throw e;
+			}
+			return true;
+		}
+		
+		Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName(format);
+		if (!writers.hasNext())
+			return false;
+		ImageWriter writer = writers.next();
+		file.delete(); // Otherwise anything past the end of the new image would be left in the file
+		try (ImageOutputStream out = ImageIO.createImageOutputStream(file)) {
+			if (out == null)
+				throw new IOException("Unable to open " + file);
+			writer.setOutput(out);
+			ImageWriteParam param = writer.getDefaultWriteParam();
+			if (compression != Compression.DEFAULT && param.canWriteCompressed()) {
+				param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+				if (param.getCompressionType() == null && param.getCompressionTypes().length > 0)
+					param.setCompressionType(param.getCompressionTypes()[0]);
+				param.setCompressionQuality(compression.quality);
+			}
+			writer.write(null, new IIOImage(toRGB(img), null, null), param);
+		} catch (Throwable e) {
+			file.delete();
+			throw e;
+		} finally {
+			writer.dispose();
+		}
+		return true;
+	}
+	
+	// Shares the pixels with the image, except when they aren't packed ints
+	private static BufferedImage toRGB(BufferedImage img) {
+		if (!img.getColorModel().hasAlpha())
+			return img;
+		int width = img.getWidth();
+		int height = img.getHeight();
+		int[] masks = { 0xFF0000, 0xFF00, 0xFF };
+		DataBufferInt buffer = new DataBufferInt(Pixels.of(img), width * height);
+		return new BufferedImage(new DirectColorModel(24, masks[0], masks[1], masks[2]),
+				Raster.createPackedRaster(buffer, width, height, width, masks, null), false, null);
+	}
+	
+}
@@ -0,0 +1,84 @@
+package com.luneruniverse.imagecalculus;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+// Decodes images on pools of its own, so importing a folder doesn't decode every image at once. Previews have
+// their own pool so they don't wait behind the full images. Images are converted to packed TYPE_INT_ARGB once
+// here, rather than every time their pixels are needed.
+public class ImageLoader {
+	
+	private final ExecutorService executor;
+	private final ExecutorService previewExecutor;
+	
+	public ImageLoader(int threads) {
+		this.executor = Executors.newFixedThreadPool(threads, task -> createThread(task, "Image Calculus Loader"));
+		this.previewExecutor = Executors.newFixedThreadPool(Math.max(1, threads / 2), task -> createThread(task, "Image Calculus Preview Loader"));
+	}
+	private static Thread createThread(Runnable task, String name) {
+		Thread thread = new Thread(task, name);
+		thread.setDaemon(true);
+		return thread;
+	}
+	
+	public Future<BufferedImage> load(File file) {
+		return executor.submit(() -> read(file, 0));
+	}
+	// The preview is subsampled to fit in maxSize by maxSize, or is null if the image already does
+	public Future<BufferedImage> loadPreview(File file, int maxSize) {
+		return previewExecutor.submit(() -> read(file, maxSize));
+	}
+	
+	// Subsamples the image to fit in maxSize by maxSize, unless maxSize is 0. Returns null if there was no need to.
+	// RasterFiles load quickly enough without a preview.
+	public static BufferedImage read(File file, int maxSize) throws IOException {
+		if (RasterFile.isRasterFile(file.toPath())) {
+			if (maxSize > 0)
+				return null;
+			try (MappedRaster raster = RasterFile.map(file.toPath())) {
+				return Pixels.toImage(raster.encode(ExecutionOptions.DEFAULT));
+			}
+		}
+		try (ImageInputStream stream = ImageIO.createImageInputStream(file)) {
+			if (stream == null)
+				throw new IOException("Unable to open " + file);
+			Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+			if (!readers.hasNext())
+				throw new IOException("Unsupported image format");
+			ImageReader reader = readers.next();
+			try {
+				reader.setInput(stream, true, true);
+				ImageReadParam param = reader.getDefaultReadParam();
+				if (maxSize > 0) {
+					int size = Math.max(reader.getWidth(0), reader.getHeight(0));
+					int subsampling = (size + maxSize - 1) / maxSize;
+					if (subsampling <= 1)
+						return null;
+					param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+				}
+				return toARGB(reader.read(0, param));
+			} finally {
+				reader.dispose();
+			}
+		}
+	}
+	
+	public static BufferedImage toARGB(BufferedImage img) {
+		if (img.getType() == BufferedImage.TYPE_INT_ARGB && Pixels.isPacked(img))
+			return img;
+		int width = img.getWidth();
+		int height = img.getHeight();
+		return Pixels.toImage(new PixelRaster(width, height, img.getRGB(0, 0, width, height, null, 0, width)));
+	}
+	
+}
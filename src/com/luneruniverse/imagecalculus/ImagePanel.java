@@ -1,34 +1,74 @@
 package com.luneruniverse.imagecalculus;
 
+import java.awt.BorderLayout;
+import java.awt.Component;
+import java.awt.Dimension;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.image.BufferedImage;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.swing.BoxLayout;
 import javax.swing.JButton;
+import javax.swing.JLabel;
 import javax.swing.JPanel;
+import javax.swing.JProgressBar;
 import javax.swing.JScrollPane;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 
 @SuppressWarnings("serial")
-public class ImagePanel extends JPanel implements ActionListener {
+public class ImagePanel extends JPanel implements ActionListener, ProcessingMonitor {
+	
+	// Progressive processing shows a 1/4 downsample first from this size on, and a 1/8 one from 16 times it
+	private static final long PROGRESSIVE_PIXELS = 1 << 20;
 	
 	private final ImageCalculus window;
 	private final String name;
-	private final BufferedImage img;
-	private final BufferedImage processedImg;
+	private final ImageSettings settings;
+	private final boolean progressive;
+	private final JPanel inputSlot;
+	private final JPanel outputSlot;
+	private final JPanel placeholder;
+	private final JLabel status;
+	private final JProgressBar progress;
+	private final Timer progressTimer;
 	private final JButton processInput;
 	private final JButton processOutput;
 	private final JButton addImages;
+	private final AtomicInteger pass;
+	private final AtomicInteger passRows;
+	private final AtomicInteger completedRows;
+	private volatile boolean cancelled;
+	private BufferedImage img;
+	private BufferedImage processedImg;
 	
-	public ImagePanel(ImageCalculus window, String name, BufferedImage img, ImageSettings settings) {
+	public ImagePanel(ImageCalculus window, String name, Callable<BufferedImage> input, ImageSettings settings) {
+		this(window, name, null, input, settings);
+	}
+	// The preview, if there is one, is shown and processed while the input is still loading. It may return null.
+	public ImagePanel(ImageCalculus window, String name, Callable<BufferedImage> preview, Callable<BufferedImage> input, ImageSettings settings) {
 		this.window = window;
 		this.name = name;
-		this.img = img;
-		this.processedImg = Processor.process(img, settings);
+		this.settings = settings;
+		this.progressive = window.isProgressive();
+		this.pass = new AtomicInteger();
+		this.passRows = new AtomicInteger();
+		this.completedRows = new AtomicInteger();
 		
 		JPanel imgs = new JPanel();
-		imgs.add(new ImageDisplay(img, 750, 750));
-		imgs.add(new ImageDisplay(processedImg, 750, 750));
+		inputSlot = createSlot(new JLabel("Loading...", JLabel.CENTER));
+		imgs.add(inputSlot);
+		placeholder = new JPanel();
+		placeholder.setLayout(new BoxLayout(placeholder, BoxLayout.Y_AXIS));
+		status = new JLabel("Waiting...");
+		placeholder.add(status);
+		progress = new JProgressBar();
+		placeholder.add(progress);
+		outputSlot = createSlot(placeholder);
+		imgs.add(outputSlot);
 		JScrollPane imgsScroll = new JScrollPane(imgs);
 		imgsScroll.getHorizontalScrollBar().setUnitIncrement(16);
 		imgsScroll.getVerticalScrollBar().setUnitIncrement(16);
@@ -37,18 +77,117 @@ public class ImagePanel extends JPanel implements ActionListener {
 		JPanel btns = new JPanel();
 		processInput = new JButton("Process Input");
 		processInput.addActionListener(this);
+		processInput.setEnabled(false);
 		btns.add(processInput);
 		
 		processOutput = new JButton("Process Output");
 		processOutput.addActionListener(this);
+		processOutput.setEnabled(false);
 		btns.add(processOutput);
 		
 		addImages = new JButton("Add Images");
 		addImages.addActionListener(this);
+		addImages.setEnabled(false);
 		btns.add(addImages);
 		add(btns);
 		
 		setLayout(new BoxLayout(this, BoxLayout.Y_AXIS));
+		
+		progressTimer = new Timer(100, e -> {
+			status.setText("Processing (pass " + pass.get() + ")...");
+			progress.setMaximum(Math.max(1, passRows.get()));
+			progress.setValue(completedRows.get());
+		});
+		progressTimer.start();
+		window.getExecutor().execute(() -> process(preview, input));
+	}
+	
+	private JPanel createSlot(Component content) {
+		JPanel slot = new JPanel(new BorderLayout());
+		slot.setPreferredSize(new Dimension(750, 750));
+		slot.add(content, BorderLayout.CENTER);
+		return slot;
+	}
+	
+	private void process(Callable<BufferedImage> preview, Callable<BufferedImage> input) {
+		try {
+			BufferedImage previewImg = (preview == null ? null : preview.call());
+			if (previewImg != null && !cancelled) {
+				SwingUtilities.invokeLater(() -> fillSlot(inputSlot, new ImageDisplay(previewImg, 750, 750, window.getExecutor())));
+				showPreview(Processor.process(Pixels.toRaster(previewImg), settings, ExecutionOptions.DEFAULT.withMonitor(this)));
+			}
+			BufferedImage img = input.call();
+			if (cancelled)
+				return;
+			SwingUtilities.invokeLater(() -> fillSlot(inputSlot, new ImageDisplay(img, 750, 750, window.getExecutor())));
+			PixelRaster raster = Pixels.toRaster(img);
+			// A cached result is shown right away, without a preview
+			ResultCache.Key key = ResultCache.getKey(raster, settings);
+			PixelRaster processed = window.getCache().get(key);
+			if (processed == null) {
+				// The downsample is processed just like the image, so it's only roughly what the full result will be
+				if (progressive && previewImg == null && raster.getPixelCount() >= PROGRESSIVE_PIXELS) {
+					int factor = (raster.getPixelCount() >= PROGRESSIVE_PIXELS * 16 ? 8 : 4);
+					PixelRaster downsampled = Processor.downsample(raster, factor, ExecutionOptions.DEFAULT);
+					showPreview(Processor.process(downsampled, settings, ExecutionOptions.DEFAULT.withMonitor(this)));
+				}
+				processed = window.getCache().process(key, raster, ExecutionOptions.DEFAULT.withMonitor(this));
+			}
+			BufferedImage processedImg = Pixels.toImage(processed);
+			SwingUtilities.invokeLater(() -> {
+				this.img = img;
+				this.processedImg = processedImg;
+				progressTimer.stop();
+				fillSlot(outputSlot, new ImageDisplay(processedImg, 750, 750, window.getExecutor()));
+				processInput.setEnabled(true);
+				processOutput.setEnabled(true);
+				addImages.setEnabled(true);
+			});
+		} catch (CancellationException e) {
+			// The tab was closed
+		} catch (Exception e) {
+			e.printStackTrace();
+			SwingUtilities.invokeLater(() -> {
+				progressTimer.stop();
+				fillSlot(outputSlot, new JLabel("Failed: " + e, JLabel.CENTER));
+			});
+		}
+	}
+	
+	// Keeps the progress of the full image underneath
+	private void showPreview(PixelRaster processedPreview) {
+		BufferedImage img = Pixels.toImage(processedPreview);
+		SwingUtilities.invokeLater(() -> {
+			fillSlot(outputSlot, new ImageDisplay(img, 750, 750, window.getExecutor()));
+			outputSlot.add(placeholder, BorderLayout.SOUTH);
+		});
+	}
+	
+	private void fillSlot(JPanel slot, Component content) {
+		slot.removeAll();
+		slot.add(content, BorderLayout.CENTER);
+		slot.revalidate();
+		slot.repaint();
+	}
+	
+	public void cancel() {
+		cancelled = true;
+		progressTimer.stop();
+	}
+	
+	@Override
+	public boolean isCancelled() {
+		return cancelled;
+	}
+	@Override
+	public void onPassStart(int rows) {
+		completedRows.set(0);
+		passRows.set(rows);
+		pass.incrementAndGet();
+	}
+	@Override
+	public void onRowsComplete(int rows) {
+		completedRows.addAndGet(rows);
 	}
 	
 	@Override
@@ -57,8 +196,12 @@ public class ImagePanel extends JPanel implements ActionListener {
 			window.loadImage(name, img);
 		if (e.getSource() == processOutput)
 			window.loadImage(name + "'", processedImg);
-		else if (e.getSource() == addImages)
-			window.loadImage(name + "+", Processor.addImages(img, processedImg, window.getSettings()));
+		else if (e.getSource() == addImages) {
+			BufferedImage img = this.img;
+			BufferedImage processedImg = this.processedImg;
+			ImageSettings settings = window.getSettings();
+			window.loadImage(name + "+", () -> Pixels.toImage(Processor.addImages(Pixels.toRaster(img), Pixels.toRaster(processedImg), settings)));
+		}
 	}
 	
 }
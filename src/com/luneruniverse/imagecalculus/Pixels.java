@@ -0,0 +1,43 @@
+package com.luneruniverse.imagecalculus;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+
+// Converts between BufferedImages and the PixelRasters of the core, sharing the pixels wherever they're packed
+public class Pixels {
+	
+	public static PixelRaster toRaster(BufferedImage img) {
+		return new PixelRaster(img.getWidth(), img.getHeight(), of(img));
+	}
+	public static BufferedImage toImage(PixelRaster raster) {
+		int width = raster.width();
+		int height = raster.height();
+		DataBufferInt buffer = new DataBufferInt(raster.pixels(), width * height);
+		return new BufferedImage(ColorModel.getRGBdefault(),
+				Raster.createPackedRaster(buffer, width, height, width, new int[] { 0xFF0000, 0xFF00, 0xFF, 0xFF000000 }, null), false, null);
+	}
+	
+	public static int[] of(BufferedImage img) {
+		if (isPacked(img))
+			return ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
+		return img.getRGB(0, 0, img.getWidth(), img.getHeight(), null, 0, img.getWidth());
+	}
+	
+	public static boolean isPacked(BufferedImage img) {
+		if (img.getType() != BufferedImage.TYPE_INT_ARGB && img.getType() != BufferedImage.TYPE_INT_RGB)
+			return false;
+		WritableRaster raster = img.getRaster();
+		return raster.getDataBuffer() instanceof DataBufferInt buffer
+				&& buffer.getNumBanks() == 1
+				&& buffer.getOffset() == 0
+				&& raster.getSampleModelTranslateX() == 0
+				&& raster.getSampleModelTranslateY() == 0
+				&& raster.getSampleModel() instanceof SinglePixelPackedSampleModel sampleModel
+				&& sampleModel.getScanlineStride() == img.getWidth();
+	}
+	
+}
@@ -0,0 +1,358 @@
+package com.luneruniverse.imagecalculus;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.imageio.ImageIO;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+// Processes images posted to /process on the loopback address, with the settings as query parameters named
+// like the batch options, e.g. /process?integral&rescale, and streams back a PNG. Every request gets a thread of
+// its own, but only so many process at once and so many more wait for a turn. Anything past that is turned away
+// with a 503 right away, rather than piling up. GET /stats reports the counters as JSON.
+public class ProcessingServer {
+	
+	private static final String USAGE = """
+			Usage: ImageCalculus --serve [options]
+			  --port <n>                Port on the loopback address (default 8080)
+			  --concurrency <n>         Images processed at once (default 2)
+			  --queue <n>               Requests waiting for a turn before the rest are
+			                            turned away (default 8)
+			  --parallelism <n>         Threads per image (default cores / concurrency)
+			  --max-body <n>            Largest request in megabytes (default 256)
+			Query parameters of POST /process: hsv, integral, derivative2, slope-field,
+			slope-field-magnitude, slope-field-stride=<n>, slope-field-cell=<n>, rescale,
+			pipeline=<expression> and precise, as in batch mode""";
+	
+	public static void main(String[] args) {
+		System.setProperty("java.awt.headless", "true");
+		if (Arrays.asList(args).contains("--help")) {
+			System.out.println(USAGE);
+			return;
+		}
+		ProcessingServer server;
+		try {
+			server = new ProcessingServer(args);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println(USAGE);
+			System.exit(2);
+			return;
+		}
+		try {
+			server.start();
+		} catch (IOException e) {
+			System.err.println("Unable to start the server: " + e);
+			System.exit(1);
+			return;
+		}
+		System.out.println("Listening on http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "/process");
+	}
+	
+	// Ends a request early with an error status
+	@SuppressWarnings("serial")
+	private static class RequestException extends Exception {
+		private final int status;
+		
+		public RequestException(int status, String message) {
+			super(message);
+			this.status = status;
+		}
+	}
+	
+	private record Request(ImageSettings settings, String pipeline, boolean precise) {}
+	
+	
+	private int port;
+	private int concurrency;
+	private int queueSize;
+	private int parallelism;
+	private int maxBodyBytes;
+	
+	private final ExecutorService executor;
+	private final Semaphore admitted;
+	private final Semaphore running;
+	private HttpServer server;
+	private long startNanos;
+	
+	private final LongAdder received;
+	private final LongAdder rejected;
+	private final LongAdder failed;
+	private final LongAdder completed;
+	private final LongAdder pixels;
+	private final LongAdder waitNanos;
+	private final LongAdder latencyNanos;
+	private final LongAccumulator maxLatencyNanos;
+	private final AtomicInteger waiting;
+	
+	public ProcessingServer(String[] args) {
+		port = 8080;
+		concurrency = 2;
+		queueSize = 8;
+		maxBodyBytes = 256 << 20;
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i]) {
+				case "--port" -> port = getPositive(args, ++i);
+				case "--concurrency" -> concurrency = getPositive(args, ++i);
+				case "--queue" -> queueSize = getPositive(args, ++i);
+				case "--parallelism" -> parallelism = getPositive(args, ++i);
+				case "--max-body" -> {
+					int megabytes = getPositive(args, ++i);
+					if (megabytes > 2047)
+						throw new IllegalArgumentException("The largest request can be at most 2047 MB");
+					maxBodyBytes = megabytes << 20;
+				}
+				default -> throw new IllegalArgumentException("Unknown option: " + args[i]);
+			}
+		}
+		if (parallelism == 0)
+			parallelism = Math.max(1, Runtime.getRuntime().availableProcessors() / concurrency);
+		
+		// Only the requests that are admitted block, so the pool never has more than concurrency + queueSize
+		// threads for long, and the ones that are turned away finish right away
+		executor = Executors.newCachedThreadPool(task -> {
+			Thread thread = new Thread(task, "Image Calculus Server");
+			thread.setDaemon(true);
+			return thread;
+		});
+		admitted = new Semaphore(concurrency + queueSize);
+		running = new Semaphore(concurrency, true);
+		
+		received = new LongAdder();
+		rejected = new LongAdder();
+		failed = new LongAdder();
+		completed = new LongAdder();
+		pixels = new LongAdder();
+		waitNanos = new LongAdder();
+		latencyNanos = new LongAdder();
+		maxLatencyNanos = new LongAccumulator(Math::max, 0);
+		waiting = new AtomicInteger();
+	}
+	private static String getValue(String[] args, int i) {
+		if (i >= args.length)
+			throw new IllegalArgumentException("Missing value for " + args[i - 1]);
+		return args[i];
+	}
+	private static int getPositive(String[] args, int i) {
+		String value = getValue(args, i);
+		try {
+			int output = Integer.parseInt(value);
+			if (output > 0)
+				return output;
+		} catch (NumberFormatException e) {}
+		throw new IllegalArgumentException("Expected a positive number for " + args[i - 1] + ": " + value);
+	}
+	
+	public void start() throws IOException {
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		server.setExecutor(executor);
+		server.createContext("/process", this::process);
+		server.createContext("/stats", this::stats);
+		startNanos = System.nanoTime();
+		server.start();
+	}
+	public void stop() {
+		server.stop(0);
+		executor.shutdown();
+	}
+	public InetSocketAddress getAddress() {
+		return server.getAddress();
+	}
+	
+	private void process(HttpExchange exchange) throws IOException {
+		long start = System.nanoTime();
+		received.increment();
+		try {
+			if (!exchange.getRequestMethod().equals("POST"))
+				throw new RequestException(405, "Images have to be POSTed");
+			if (!admitted.tryAcquire()) {
+				rejected.increment();
+				exchange.getResponseHeaders().set("Retry-After", "1");
+				sendText(exchange, 503, "Too many requests, try again later");
+				return;
+			}
+			try {
+				Request request = parseRequest(exchange.getRequestURI().getRawQuery());
+				// The body is read before waiting, so the upload overlaps with the images being processed, but it's
+				// only decoded once it's this request's turn, so the waiting ones hold just the compressed bytes
+				byte[] body = readBody(exchange);
+				waiting.incrementAndGet();
+				long waitStart = System.nanoTime();
+				try {
+					running.acquire();
+				} finally {
+					waiting.decrementAndGet();
+				}
+				long waited = System.nanoTime() - waitStart;
+				PixelRaster img;
+				PixelRaster output;
+				try {
+					BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(body));
+					if (decoded == null)
+						throw new RequestException(415, "Unsupported image format");
+					img = Pixels.toRaster(ImageLoader.toARGB(decoded));
+					output = process(img, request);
+				} finally {
+					running.release();
+				}
+				
+				exchange.getResponseHeaders().set("Content-Type", "image/png");
+				exchange.sendResponseHeaders(200, 0);
+				try (PNGStripWriter writer = new PNGStripWriter(exchange.getResponseBody(), output.width(), output.height())) {
+					writer.writeRows(output.pixels(), 0, output.height());
+				}
+				
+				long latency = System.nanoTime() - start;
+				completed.increment();
+				pixels.add(img.getPixelCount());
+				waitNanos.add(waited);
+				latencyNanos.add(latency);
+				maxLatencyNanos.accumulate(latency);
+			} finally {
+				admitted.release();
+			}
+		} catch (RequestException e) {
+			fail(exchange, e.status, e.getMessage());
+		} catch (IllegalArgumentException e) {
+			fail(exchange, 400, e.getMessage());
+		} catch (IOException e) {
+			fail(exchange, 400, "Unable to read the image: " + e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			fail(exchange, 503, "The server is stopping");
+		} catch (RuntimeException e) {
+			fail(exchange, 500, e.toString());
+		} finally {
+			exchange.close();
+		}
+	}
+	// Once the image has started streaming back, all that's left is to drop the connection
+	private void fail(HttpExchange exchange, int status, String message) throws IOException {
+		failed.increment();
+		if (exchange.getResponseCode() == -1)
+			sendText(exchange, status, message);
+	}
+	
+	private PixelRaster process(PixelRaster img, Request request) {
+		ExecutionOptions options = new ExecutionOptions(parallelism);
+		ImageSettings settings = request.settings();
+		Color.Type type = settings.type();
+		if (request.precise()) {
+			SignedRaster raster = SignedRaster.decode(img, type, options);
+			SignedRaster output = (request.pipeline() == null ? Processor.process(raster, settings, options) :
+					Processor.evaluate(request.pipeline(), raster, settings, options));
+			return output.encode(type, options);
+		}
+		if (request.pipeline() != null)
+			return Pipeline.parse(request.pipeline(), Pipeline.source(img), settings).render(options);
+		return Processor.process(img, settings, options);
+	}
+	
+	// Flags are set by their name alone, or name=true
+	private static Request parseRequest(String query) {
+		Color.Type type = Color.Type.RGB;
+		boolean integral = false;
+		boolean derivative2 = false;
+		boolean slopeField = false;
+		boolean slopeFieldMagnitude = false;
+		boolean rescale = false;
+		int slopeFieldStride = SlopeField.DEFAULT_STRIDE;
+		int slopeFieldCellSize = SlopeField.DEFAULT_CELL_SIZE;
+		String pipeline = null;
+		boolean precise = false;
+		for (String parameter : (query == null || query.isEmpty() ? new String[0] : query.split("&"))) {
+			int equals = parameter.indexOf('=');
+			String name = URLDecoder.decode(equals == -1 ? parameter : parameter.substring(0, equals), StandardCharsets.UTF_8);
+			String value = (equals == -1 ? null : URLDecoder.decode(parameter.substring(equals + 1), StandardCharsets.UTF_8));
+			switch (name) {
+				case "hsv" -> type = (getFlag(name, value) ? Color.Type.HSV : Color.Type.RGB);
+				case "integral" -> integral = getFlag(name, value);
+				case "derivative2" -> derivative2 = getFlag(name, value);
+				case "slope-field" -> slopeField = getFlag(name, value);
+				case "slope-field-magnitude" -> slopeFieldMagnitude = getFlag(name, value);
+				case "slope-field-stride" -> slopeFieldStride = getPositive(name, value);
+				case "slope-field-cell" -> slopeFieldCellSize = getPositive(name, value);
+				case "rescale" -> rescale = getFlag(name, value);
+				case "pipeline" -> pipeline = value;
+				case "precise" -> precise = getFlag(name, value);
+				default -> throw new IllegalArgumentException("Unknown parameter: " + name);
+			}
+		}
+		ImageSettings settings = new ImageSettings(type, integral, derivative2, slopeField, slopeFieldMagnitude, rescale, slopeFieldStride, slopeFieldCellSize);
+		if (precise && slopeField && pipeline == null)
+			throw new IllegalArgumentException("Slope fields can't be drawn precisely");
+		if (pipeline != null)
+			Pipeline.parse(pipeline, Pipeline.source(new PixelRaster(1, 1)), settings);
+		return new Request(settings, pipeline, precise);
+	}
+	private static boolean getFlag(String name, String value) {
+		if (value == null || value.equals("true"))
+			return true;
+		if (value.equals("false"))
+			return false;
+		throw new IllegalArgumentException("Expected true or false for " + name + ": " + value);
+	}
+	private static int getPositive(String name, String value) {
+		try {
+			int output = Integer.parseInt(String.valueOf(value));
+			if (output > 0)
+				return output;
+		} catch (NumberFormatException e) {}
+		throw new IllegalArgumentException("Expected a positive number for " + name + ": " + value);
+	}
+	
+	private byte[] readBody(HttpExchange exchange) throws IOException, RequestException {
+		String length = exchange.getRequestHeaders().getFirst("Content-Length");
+		if (length != null && Long.parseLong(length) > maxBodyBytes)
+			throw new RequestException(413, "The image is larger than " + (maxBodyBytes >> 20) + " MB");
+		byte[] body = exchange.getRequestBody().readNBytes(maxBodyBytes + 1);
+		if (body.length > maxBodyBytes)
+			throw new RequestException(413, "The image is larger than " + (maxBodyBytes >> 20) + " MB");
+		return body;
+	}
+	
+	private void stats(HttpExchange exchange) throws IOException {
+		try (exchange) {
+			double seconds = (System.nanoTime() - startNanos) / 1e9;
+			long completed = this.completed.sum();
+			String stats = String.format(Locale.ROOT, """
+					{"received": %d, "completed": %d, "rejected": %d, "failed": %d, "running": %d, "waiting": %d,
+					 "meanWaitMillis": %.1f, "meanLatencyMillis": %.1f, "maxLatencyMillis": %.1f,
+					 "imagesPerSecond": %.3f, "megapixelsPerSecond": %.3f}""",
+					received.sum(), completed, rejected.sum(), failed.sum(), concurrency - running.availablePermits(), waiting.get(),
+					completed == 0 ? 0 : waitNanos.sum() / 1e6 / completed,
+					completed == 0 ? 0 : latencyNanos.sum() / 1e6 / completed, maxLatencyNanos.get() / 1e6,
+					completed / seconds, pixels.sum() / 1e6 / seconds);
+			exchange.getResponseHeaders().set("Content-Type", "application/json");
+			byte[] bytes = stats.getBytes(StandardCharsets.UTF_8);
+			exchange.sendResponseHeaders(200, bytes.length);
+			exchange.getResponseBody().write(bytes);
+		}
+	}
+	
+	private static void sendText(HttpExchange exchange, int status, String message) throws IOException {
+		byte[] bytes = (message + "\n").getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+		exchange.sendResponseHeaders(status, bytes.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+	}
+	
+}
@@ -0,0 +1,239 @@
+package com.luneruniverse.imagecalculus;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+// Reads, processes and writes an image a strip of rows at a time, so memory depends on the strip height
+// rather than the image size. Stencils read one row of halo on either side of each strip, and the integral
+// carries running column sums from strip to strip. PNGs that PNGStripReader handles are decoded once per pass,
+// while other images are read a region at a time, which ImageIO decodes from the top every time.
+public class StreamingProcessor {
+	
+	// Writes a PNG and returns the number of pixels in the input
+	public static long process(File input, File output, ImageSettings settings, int stripHeight, ExecutionOptions options) throws IOException {
+		if (stripHeight < 1)
+			throw new IllegalArgumentException("The strip height must be at least 1");
+		PNGStripReader png = PNGStripReader.open(input.toPath());
+		if (png != null) {
+			StreamingProcessor processor = new StreamingProcessor(input, png, null, settings, stripHeight, options);
+			try {
+				long pixels = (long) processor.width * processor.height;
+				ProcessingMetrics.measure("stream", pixels, () -> write(output, processor::process));
+				return pixels;
+			} finally {
+				processor.png.close(); // Every pass opens its own reader
+			}
+		}
+		try (ImageInputStream stream = ImageIO.createImageInputStream(input)) {
+			if (stream == null)
+				throw new IOException("Unable to open " + input);
+			Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+			if (!readers.hasNext())
+				throw new IOException("Unsupported image format");
+			ImageReader reader = readers.next();
+			try {
+				reader.setInput(stream);
+				StreamingProcessor processor = new StreamingProcessor(input, null, reader, settings, stripHeight, options);
+				long pixels = (long) processor.width * processor.height;
+				ProcessingMetrics.measure("stream", pixels, () -> write(output, processor::process));
+				return pixels;
+			} finally {
+				reader.dispose();
+			}
+		}
+	}
+	private interface Output {
+		public void write(OutputStream out) throws IOException;
+	}
+	// Deletes the output if it fails, rather than leaving a truncated PNG behind
+	private static void write(File output, Output writer) throws IOException {
+		try (OutputStream out = new BufferedOutputStream(new FileOutputStream(output))) {
+			writer.write(out);
+		} catch (Throwable e) {
+			output.delete();
+			throw e;
+		}
+	}
+	
+	
+	private final File input;
+	private final ImageReader reader;
+	private final ImageSettings settings;
+	private final int stripHeight;
+	private final ExecutionOptions options;
+	private final int width;
+	private final int height;
+	private PNGStripReader png;
+	// The last rows that were read, which the next strip may read again
+	private int[] lastRows;
+	private int lastRowsTop;
+	private int lastRowsBottom;
+	
+	private StreamingProcessor(File input, PNGStripReader png, ImageReader reader, ImageSettings settings, int stripHeight, ExecutionOptions options) throws IOException {
+		this.input = input;
+		this.png = png;
+		this.reader = reader;
+		this.settings = settings;
+		this.stripHeight = stripHeight;
+		this.options = options;
+		this.width = (png != null ? png.getWidth() : reader.getWidth(0));
+		this.height = (png != null ? png.getHeight() : reader.getHeight(0));
+		this.lastRows = new int[0];
+	}
+	
+	private int[] readRows(int fromY, int toY) throws IOException {
+		return ProcessingMetrics.measure("read", (long) width * (toY - fromY), () -> {
+			if (png == null) {
+				ImageReadParam param = reader.getDefaultReadParam();
+				param.setSourceRegion(new Rectangle(0, fromY, width, toY - fromY));
+				BufferedImage strip = reader.read(0, param);
+				return Pixels.of(strip);
+			}
+			// A new pass starts over with a new reader
+			if (fromY < lastRowsTop || toY < lastRowsBottom) {
+				png.close();
+				png = PNGStripReader.open(input.toPath());
+				if (png == null)
+					throw new IOException("Unable to read " + input + " again");
+				lastRowsTop = 0;
+				lastRowsBottom = 0;
+			}
+			int[] pixels = new int[(toY - fromY) * width];
+			for (int y = lastRowsBottom; y < fromY; y++)
+				png.readRows(pixels, 0, 1);
+			int kept = Math.max(0, lastRowsBottom - fromY);
+			if (kept > 0)
+				System.arraycopy(lastRows, (fromY - lastRowsTop) * width, pixels, 0, kept * width);
+			png.readRows(pixels, kept * width, toY - fromY - kept);
+			lastRows = pixels;
+			lastRowsTop = fromY;
+			lastRowsBottom = toY;
+			return pixels;
+		});
+	}
+	
+	private void process(OutputStream out) throws IOException {
+		if (settings.integral()) {
+			integrate(out);
+			return;
+		}
+		boolean slopeField = (!settings.derivative2() && settings.slopeField());
+		int outputWidth = (slopeField ? SlopeField.getOutputSize(width, settings) : width);
+		int outputHeight = (slopeField ? SlopeField.getOutputSize(height, settings) : height);
+		// Slope field strips start on a sample block, so they sample the same pixels as the whole image would
+		int stripHeight = this.stripHeight;
+		if (slopeField)
+			stripHeight = SlopeField.getSamples(stripHeight, settings.slopeFieldStride()) * settings.slopeFieldStride();
+		try (PNGStripWriter writer = new PNGStripWriter(out, outputWidth, outputHeight)) {
+			for (int y = 0; y < height; y += stripHeight) {
+				int top = Math.max(0, y - 1);
+				int bottom = Math.min(height, y + stripHeight + 1);
+				int rows = bottom - top;
+				int fromY = y - top;
+				int toY = Math.min(height, y + stripHeight) - top;
+				int[] pixels = readRows(top, bottom);
+				int outputRows = (slopeField ? SlopeField.getOutputSize(toY - fromY, settings) : rows);
+				int[] output = new int[outputWidth * outputRows];
+				if (settings.derivative2()) {
+					Processor.derivative2(pixels, output, width, rows, width / 2, height / 2 - top, fromY, toY, settings, options);
+					writer.writeRows(output, fromY, toY);
+				} else if (settings.slopeField()) {
+					Processor.slopeField(pixels, output, width, rows, fromY, toY, settings, options);
+					writer.writeRows(output, 0, outputRows);
+				} else {
+					Processor.derivative(pixels, output, width, rows, fromY, toY, settings, options);
+					writer.writeRows(output, fromY, toY);
+				}
+			}
+		}
+	}
+	
+	// Above the center row, the integral of a row is the sum of the row sums from it down to the center,
+	// which is their total over the top half minus the rows above it. So a first pass collects those
+	// totals, after which the column sums run from strip to strip. Rescaling needs one more pass for the range.
+	private void integrate(OutputStream out) throws IOException {
+		long[][] totals = new long[ChannelBuffer.CHANNELS][width];
+		forEachRowSum(height / 2 + 1, (y, rowSums) -> {
+			for (int channel = 0; channel < ChannelBuffer.CHANNELS; channel++) {
+				for (int x = 0; x < width; x++)
+					totals[channel][x] += rowSums[channel][x];
+			}
+		});
+		
+		long[] range = { Long.MAX_VALUE, Long.MIN_VALUE };
+		if (settings.rescale()) {
+			forEachIntegralRow(totals, (y, sums) -> {
+				for (long[] channel : sums) {
+					for (long sum : channel) {
+						range[0] = Math.min(range[0], sum);
+						range[1] = Math.max(range[1], sum);
+					}
+				}
+			});
+		}
+		
+		try (PNGStripWriter writer = new PNGStripWriter(out, width, height)) {
+			ChannelBuffer row = new ChannelBuffer(width, 1);
+			int[] output = new int[width];
+			forEachIntegralRow(totals, (y, sums) -> {
+				for (int channel = 0; channel < ChannelBuffer.CHANNELS; channel++) {
+					int[] values = row.getChannel(channel);
+					for (int x = 0; x < width; x++)
+						values[x] = Processor.toIntegralValue(sums[channel][x], settings.rescale(), range[0], range[1]);
+				}
+				row.encode(output, settings.type(), 0, 1);
+				writer.writeRows(output, 0, 1);
+			});
+		}
+	}
+	
+	private interface RowConsumer {
+		public void accept(int y, long[][] sums) throws IOException;
+	}
+	private void forEachIntegralRow(long[][] totals, RowConsumer consumer) throws IOException {
+		int centerY = height / 2;
+		long[][] columnSums = new long[ChannelBuffer.CHANNELS][];
+		for (int channel = 0; channel < ChannelBuffer.CHANNELS; channel++)
+			columnSums[channel] = totals[channel].clone();
+		forEachRowSum(height, (y, rowSums) -> {
+			if (y > centerY)
+				addRows(columnSums, rowSums, 1);
+			consumer.accept(y, columnSums);
+			if (y < centerY)
+				addRows(columnSums, rowSums, -1);
+		});
+	}
+	private void addRows(long[][] sums, long[][] rowSums, int sign) {
+		for (int channel = 0; channel < ChannelBuffer.CHANNELS; channel++) {
+			for (int x = 0; x < width; x++)
+				sums[channel][x] += sign * rowSums[channel][x];
+		}
+	}
+	// Passes every row of the signed input after summing outward from the center column
+	private void forEachRowSum(int rows, RowConsumer consumer) throws IOException {
+		int centerX = width / 2;
+		long[][] rowSums = new long[ChannelBuffer.CHANNELS][width];
+		for (int top = 0; top < rows; top += stripHeight) {
+			int bottom = Math.min(rows, top + stripHeight);
+			ChannelBuffer strip = ChannelBuffer.decode(readRows(top, bottom), width, bottom - top, settings.type(), options);
+			Processor.toSigned(strip, 0, width * (bottom - top));
+			for (int y = top; y < bottom; y++) {
+				for (int channel = 0; channel < ChannelBuffer.CHANNELS; channel++)
+					PrefixSums.scanRow(strip.getChannel(channel), (y - top) * width, rowSums[channel], 0, width, centerX);
+				consumer.accept(y, rowSums);
+			}
+		}
+	}
+	
+}
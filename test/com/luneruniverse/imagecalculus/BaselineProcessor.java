@@ -6,7 +6,9 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-public class Processor {
+// The Processor that the 8-bit operations started from, as it was apart from its name and BaselineColor. The
+// operations have to give exactly what it does.
+class BaselineProcessor {
 	
 	public static BufferedImage process(BufferedImage img, ImageSettings settings) {
 		if (settings.integral())
@@ -22,19 +24,19 @@ public class Processor {
 		BufferedImage output = new BufferedImage(img.getWidth(), img.getHeight(), BufferedImage.TYPE_INT_ARGB);
 		for (int x = 0; x < img.getWidth(); x++) {
 			for (int y = 0; y < img.getHeight(); y++) {
-				Color color = Color.fromRGB(img.getRGB(x, y));
-				List<Color> colors = new ArrayList<>();
+				BaselineColor color = BaselineColor.fromRGB(img.getRGB(x, y));
+				List<BaselineColor> colors = new ArrayList<>();
 				if (x > 0)
-					colors.add(Color.fromRGB(img.getRGB(x - 1, y)));
+					colors.add(BaselineColor.fromRGB(img.getRGB(x - 1, y)));
 				if (y > 0)
-					colors.add(Color.fromRGB(img.getRGB(x, y - 1)));
+					colors.add(BaselineColor.fromRGB(img.getRGB(x, y - 1)));
 				if (x < img.getWidth() - 1)
-					colors.add(Color.fromRGB(img.getRGB(x + 1, y)));
+					colors.add(BaselineColor.fromRGB(img.getRGB(x + 1, y)));
 				if (y < img.getHeight() - 1)
-					colors.add(Color.fromRGB(img.getRGB(x, y + 1)));
+					colors.add(BaselineColor.fromRGB(img.getRGB(x, y + 1)));
 				for (int i = 0; i < colors.size(); i++)
 					colors.set(i, color.slope(colors.get(i), settings.type()));
-				output.setRGB(x, y, Color.fromAverage(colors, settings.type()).getRGB());
+				output.setRGB(x, y, BaselineColor.fromAverage(colors, settings.type()).getRGB());
 			}
 		}
 		return output;
@@ -44,28 +46,28 @@ public class Processor {
 		BufferedImage output = new BufferedImage(img.getWidth() * 5, img.getHeight() * 5, BufferedImage.TYPE_INT_ARGB);
 		for (int x = 0; x < img.getWidth(); x++) {
 			for (int y = 0; y < img.getHeight(); y++) {
-				Color color = Color.fromRGB(img.getRGB(x, y));
-				Map<Color.Direction, Color> colors = new HashMap<>();
+				BaselineColor color = BaselineColor.fromRGB(img.getRGB(x, y));
+				Map<BaselineColor.Direction, BaselineColor> colors = new HashMap<>();
 				if (x > 0)
-					colors.put(Color.Direction.LEFT, Color.fromRGB(img.getRGB(x - 1, y)));
+					colors.put(BaselineColor.Direction.LEFT, BaselineColor.fromRGB(img.getRGB(x - 1, y)));
 				if (y > 0)
-					colors.put(Color.Direction.UP, Color.fromRGB(img.getRGB(x, y - 1)));
+					colors.put(BaselineColor.Direction.UP, BaselineColor.fromRGB(img.getRGB(x, y - 1)));
 				if (x < img.getWidth() - 1)
-					colors.put(Color.Direction.RIGHT, Color.fromRGB(img.getRGB(x + 1, y)));
+					colors.put(BaselineColor.Direction.RIGHT, BaselineColor.fromRGB(img.getRGB(x + 1, y)));
 				if (y < img.getHeight() - 1)
-					colors.put(Color.Direction.DOWN, Color.fromRGB(img.getRGB(x, y + 1)));
+					colors.put(BaselineColor.Direction.DOWN, BaselineColor.fromRGB(img.getRGB(x, y + 1)));
 				colors.replaceAll((dir, dirColor) -> color.slope(dirColor, settings.type()));
 				
-				Color.ColorVector vector = Color.calculateVector(colors);
-				Color arrowColor = color;
+				BaselineColor.ColorVector vector = BaselineColor.calculateVector(colors);
+				BaselineColor arrowColor = color;
 				if (settings.slopeFieldMagnitude())
-					arrowColor = Color.fromHSV(0, 0, (float) (vector.magnitude() / Color.ColorVector.MAX_MAGNITUDE / 2 + 0.5));
+					arrowColor = BaselineColor.fromHSV(0, 0, (float) (vector.magnitude() / BaselineColor.ColorVector.MAX_MAGNITUDE / 2 + 0.5));
 				drawArrow(output, x * 5, y * 5, arrowColor, vector.angle());
 			}
 		}
 		return output;
 	}
-	private static void drawArrow(BufferedImage output, int x, int y, Color color, double angle) {
+	private static void drawArrow(BufferedImage output, int x, int y, BaselineColor color, double angle) {
 		output.setRGB(x + 2, y + 2, color.getRGB());
 		if (angle < 0)
 			angle += Math.PI;
@@ -124,7 +126,7 @@ public class Processor {
 		int[][][] colors = new int[img.getWidth()][img.getHeight()][3];
 		for (int x = 0; x < img.getWidth(); x++) {
 			for (int y = 0; y < img.getHeight(); y++) {
-				Color color = Color.fromRGB(img.getRGB(x, y));
+				BaselineColor color = BaselineColor.fromRGB(img.getRGB(x, y));
 				if (settings.type() == Color.Type.RGB) {
 					colors[x][y][0] = color.getRed();
 					colors[x][y][1] = color.getGreen();
@@ -168,11 +170,11 @@ public class Processor {
 			for (int y = 0; y < img.getHeight(); y++) {
 				for (int channel = 0; channel < 3; channel++)
 					colors[x][y][channel] = colors[x][y][channel] / 2 + 127;
-				Color color;
+				BaselineColor color;
 				if (settings.type() == Color.Type.RGB)
-					color = Color.fromRGB(colors[x][y][0], colors[x][y][1], colors[x][y][2]);
+					color = BaselineColor.fromRGB(colors[x][y][0], colors[x][y][1], colors[x][y][2]);
 				else
-					color = Color.fromHSV(colors[x][y][0] / 255.0F, colors[x][y][1] / 255.0F, colors[x][y][2] / 255.0F);
+					color = BaselineColor.fromHSV(colors[x][y][0] / 255.0F, colors[x][y][1] / 255.0F, colors[x][y][2] / 255.0F);
 				output.setRGB(x, y, color.getRGB());
 			}
 		}
@@ -184,7 +186,7 @@ public class Processor {
 		int[][][] colors = new int[img.getWidth()][img.getHeight()][3];
 		for (int x = 0; x < img.getWidth(); x++) {
 			for (int y = 0; y < img.getHeight(); y++) {
-				Color color = Color.fromRGB(img.getRGB(x, y));
+				BaselineColor color = BaselineColor.fromRGB(img.getRGB(x, y));
 				if (settings.type() == Color.Type.RGB) {
 					colors[x][y][0] = color.getRed();
 					colors[x][y][1] = color.getGreen();
@@ -218,7 +220,6 @@ public class Processor {
 					}
 				}
 			}
-			System.out.println("Rescale range: [" + min + ", " + max + "] -> [0, 255]");
 		}
 		
 		BufferedImage output = new BufferedImage(img.getWidth(), img.getHeight(), BufferedImage.TYPE_INT_ARGB);
@@ -230,11 +231,11 @@ public class Processor {
 					for (int channel = 0; channel < 3; channel++)
 						colors[x][y][channel] = (colors[x][y][channel] - min) * 255 / (max - min);
 				}
-				Color color;
+				BaselineColor color;
 				if (settings.type() == Color.Type.RGB)
-					color = Color.fromRGB(colors[x][y][0], colors[x][y][1], colors[x][y][2]);
+					color = BaselineColor.fromRGB(colors[x][y][0], colors[x][y][1], colors[x][y][2]);
 				else
-					color = Color.fromHSV(colors[x][y][0] / 255.0F, colors[x][y][1] / 255.0F, colors[x][y][2] / 255.0F);
+					color = BaselineColor.fromHSV(colors[x][y][0] / 255.0F, colors[x][y][1] / 255.0F, colors[x][y][2] / 255.0F);
 				output.setRGB(x, y, color.getRGB());
 			}
 		}
@@ -266,8 +267,8 @@ public class Processor {
 				BufferedImage.TYPE_INT_ARGB);
 		for (int x = 0; x < output.getWidth(); x++) {
 			for (int y = 0; y < output.getHeight(); y++) {
-				Color colorA = Color.fromRGB(imgA.getRGB(x, y));
-				Color colorB = Color.fromRGB(imgB.getRGB(x, y));
+				BaselineColor colorA = BaselineColor.fromRGB(imgA.getRGB(x, y));
+				BaselineColor colorB = BaselineColor.fromRGB(imgB.getRGB(x, y));
 				output.setRGB(x, y, colorA.add(colorB, settings.type()).getRGB());
 			}
 		}
@@ -0,0 +1,93 @@
+package com.luneruniverse.imagecalculus;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import org.junit.jupiter.api.Test;
+
+class ProcessingServerTest {
+	
+	@Test
+	void turnsAwayRequestsPastTheQueue() throws IOException, InterruptedException {
+		ProcessingServer server = new ProcessingServer(new String[] { "--port", String.valueOf(getFreePort()), "--concurrency", "1", "--queue", "1" });
+		server.start();
+		HttpClient client = HttpClient.newHttpClient();
+		String address = "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+		try {
+			// Uploads that never finish hold on to both places
+			try (Socket first = startUpload(server); Socket second = startUpload(server)) {
+				long deadline = System.nanoTime() + 10_000_000_000L;
+				while (!getStats(client, address).contains("\"received\": 2,")) {
+					assertTrue(System.nanoTime() < deadline, "The uploads never arrived");
+					Thread.sleep(10);
+				}
+				HttpResponse<String> response = client.send(HttpRequest.newBuilder(URI.create(address + "/process"))
+						.POST(HttpRequest.BodyPublishers.ofByteArray(new byte[16])).build(), HttpResponse.BodyHandlers.ofString());
+				assertEquals(503, response.statusCode());
+				assertEquals("1", response.headers().firstValue("Retry-After").orElse(null));
+				assertTrue(getStats(client, address).contains("\"rejected\": 1,"));
+			}
+			
+			// Once they're dropped, there is room again
+			BufferedImage img = new BufferedImage(31, 17, BufferedImage.TYPE_INT_RGB);
+			Random random = new Random(23);
+			for (int y = 0; y < img.getHeight(); y++) {
+				for (int x = 0; x < img.getWidth(); x++)
+					img.setRGB(x, y, random.nextInt());
+			}
+			ByteArrayOutputStream png = new ByteArrayOutputStream();
+			ImageIO.write(img, "png", png);
+			HttpRequest request = HttpRequest.newBuilder(URI.create(address + "/process?integral&rescale"))
+					.POST(HttpRequest.BodyPublishers.ofByteArray(png.toByteArray())).build();
+			HttpResponse<byte[]> response = null;
+			for (int attempt = 0; attempt < 100 && (response == null || response.statusCode() == 503); attempt++) {
+				if (response != null)
+					Thread.sleep(50);
+				response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+			}
+			assertEquals(200, response.statusCode());
+			PixelRaster expected = Processor.process(Pixels.toRaster(img), new ImageSettings(Color.Type.RGB, true, false, false, false, true));
+			BufferedImage actual = ImageIO.read(new ByteArrayInputStream(response.body()));
+			assertArrayEquals(expected.pixels(), Pixels.toRaster(ImageLoader.toARGB(actual)).pixels());
+		} finally {
+			server.stop();
+		}
+	}
+	
+	private static int getFreePort() throws IOException {
+		try (ServerSocket socket = new ServerSocket(0)) {
+			return socket.getLocalPort();
+		}
+	}
+	
+	// Sends the headers of a request, but not its body
+	private static Socket startUpload(ProcessingServer server) throws IOException {
+		Socket socket = new Socket(server.getAddress().getAddress(), server.getAddress().getPort());
+		OutputStream out = socket.getOutputStream();
+		out.write(("POST /process HTTP/1.1\r\nHost: localhost\r\nContent-Length: 1000\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+		out.flush();
+		return socket;
+	}
+	
+	private static String getStats(HttpClient client, String address) throws IOException, InterruptedException {
+		return client.send(HttpRequest.newBuilder(URI.create(address + "/stats")).build(), HttpResponse.BodyHandlers.ofString()).body();
+	}
+	
+}
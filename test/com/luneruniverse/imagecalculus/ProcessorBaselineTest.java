@@ -0,0 +1,91 @@
+package com.luneruniverse.imagecalculus;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+// The 8-bit operations have to give exactly what BaselineProcessor does, in RGB and in HSV
+class ProcessorBaselineTest {
+	
+	private static final int[][] SIZES = { {1, 2}, {2, 1}, {3, 3}, {17, 9}, {64, 31}, {200, 150} };
+	private static final ExecutionOptions[] OPTIONS = { new ExecutionOptions(1, false), new ExecutionOptions(3, true) };
+	
+	private interface Operation {
+		public BufferedImage apply(BufferedImage img, BufferedImage other, ImageSettings settings) throws Exception;
+	}
+	
+	@Test
+	void derivativeMatchesBaseline() throws Exception {
+		check((img, other, settings) -> BaselineProcessor.derivative(img, settings),
+				(img, other, settings, options) -> Processor.derivative(img, settings, options));
+	}
+	@Test
+	void derivative2MatchesBaseline() throws Exception {
+		check((img, other, settings) -> BaselineProcessor.derivative2(img, settings),
+				(img, other, settings, options) -> Processor.derivative2(img, settings, options));
+	}
+	@Test
+	void integrateMatchesBaseline() throws Exception {
+		check((img, other, settings) -> BaselineProcessor.integrate(img, settings),
+				(img, other, settings, options) -> Processor.integrate(img, settings, options));
+	}
+	@Test
+	void slopeFieldMatchesBaseline() throws Exception {
+		check((img, other, settings) -> BaselineProcessor.slopeField(img, settings),
+				(img, other, settings, options) -> Processor.slopeField(img, settings, options));
+	}
+	@Test
+	void addImagesMatchesBaseline() throws Exception {
+		check((img, other, settings) -> BaselineProcessor.addImages(img, other, settings),
+				(img, other, settings, options) -> Processor.addImages(img, other, settings, options));
+	}
+	
+	private interface RasterOperation {
+		public PixelRaster apply(PixelRaster img, PixelRaster other, ImageSettings settings, ExecutionOptions options);
+	}
+	private static void check(Operation baseline, RasterOperation operation) throws Exception {
+		Random random = new Random(1);
+		for (int[] size : SIZES) {
+			// The other image is wider, to check that add only covers the overlap
+			BufferedImage img = randomImage(size[0], size[1], random);
+			BufferedImage other = randomImage(size[0] + 1, size[1], random);
+			for (Color.Type type : Color.Type.values()) {
+				for (int flags = 0; flags < 4; flags++) {
+					ImageSettings settings = new ImageSettings(type, false, false, false, (flags & 1) != 0, (flags & 2) != 0);
+					BufferedImage expected;
+					try {
+						expected = baseline.apply(img, other, settings);
+					} catch (ArithmeticException e) { // Rescaling an integral with a single value
+						for (ExecutionOptions options : OPTIONS) {
+							assertThrows(ArithmeticException.class, () -> operation.apply(Pixels.toRaster(img), Pixels.toRaster(other), settings, options),
+									() -> size[0] + "x" + size[1] + " with " + settings);
+						}
+						continue;
+					}
+					int[] expectedPixels = Pixels.toRaster(ImageLoader.toARGB(expected)).pixels();
+					for (ExecutionOptions options : OPTIONS) {
+						PixelRaster actual = operation.apply(Pixels.toRaster(img), Pixels.toRaster(other), settings, options);
+						assertArrayEquals(expectedPixels, actual.pixels(), () -> size[0] + "x" + size[1] + " with " + settings + " and " + options);
+					}
+				}
+			}
+		}
+	}
+	
+	// Mostly smooth, with some noise and some transparency, which the operations ignore
+	private static BufferedImage randomImage(int width, int height, Random random) {
+		BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				int rgb = (random.nextInt(4) == 0 ? random.nextInt() : ((x * 7 + y * 3) & 0xFF) * 0x010101 + random.nextInt(9));
+				img.setRGB(x, y, (rgb & 0xFFFFFF) | (random.nextBoolean() ? 0xFF000000 : 0x80000000));
+			}
+		}
+		return img;
+	}
+	
+}
@@ -0,0 +1,100 @@
+package com.luneruniverse.imagecalculus;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// Streaming has to give exactly what processing the whole image does
+class StreamingProcessorTest {
+	
+	// A single pixel has no neighbors to take the derivative from
+	private static final int[][] SIZES = { {1, 9}, {9, 1}, {2, 2}, {37, 29} };
+	private static final int[] STRIP_HEIGHTS = { 1, 7, 100 };
+	
+	@TempDir
+	Path directory;
+	
+	@Test
+	void matchesInMemoryProcessing() throws IOException {
+		Random random = new Random(3);
+		File output = directory.resolve("output.png").toFile();
+		for (int[] size : SIZES) {
+			// Truecolor and palette PNGs are read by PNGStripReader, and BMPs by ImageIO
+			BufferedImage rgb = new BufferedImage(size[0], size[1], BufferedImage.TYPE_INT_RGB);
+			BufferedImage indexed = new BufferedImage(size[0], size[1], BufferedImage.TYPE_BYTE_INDEXED);
+			for (int y = 0; y < size[1]; y++) {
+				for (int x = 0; x < size[0]; x++) {
+					int color = (random.nextInt(3) == 0 ? random.nextInt() : (x * 5 + y * 3) * 0x010203);
+					rgb.setRGB(x, y, color);
+					indexed.setRGB(x, y, color);
+				}
+			}
+			File[] inputs = { write(rgb, "png", "rgb.png"), write(indexed, "png", "indexed.png"), write(rgb, "bmp", "rgb.bmp") };
+			for (File input : inputs) {
+				PixelRaster img = Pixels.toRaster(ImageIO.read(input));
+				for (Color.Type type : Color.Type.values()) {
+					ImageSettings[] operations = {
+						new ImageSettings(type, false, false, false, false, false),
+						new ImageSettings(type, false, true, false, false, false),
+						new ImageSettings(type, false, false, true, false, false),
+						new ImageSettings(type, true, false, false, false, false),
+						new ImageSettings(type, true, false, false, false, true)
+					};
+					for (ImageSettings settings : operations) {
+						int[] expected = toRGB(Processor.process(img, settings, ExecutionOptions.SERIAL));
+						for (int stripHeight : STRIP_HEIGHTS) {
+							StreamingProcessor.process(input, output, settings, stripHeight, new ExecutionOptions(2));
+							assertArrayEquals(expected, toRGB(Pixels.toRaster(ImageIO.read(output))), () -> input.getName() + " at "
+									+ size[0] + "x" + size[1] + " with " + settings + " in strips of " + stripHeight);
+						}
+					}
+				}
+			}
+		}
+	}
+	
+	@Test
+	void removesOutputOfTruncatedInput() throws IOException {
+		BufferedImage img = new BufferedImage(64, 64, BufferedImage.TYPE_INT_RGB);
+		Random random = new Random(4);
+		for (int y = 0; y < 64; y++) {
+			for (int x = 0; x < 64; x++)
+				img.setRGB(x, y, random.nextInt());
+		}
+		File input = write(img, "png", "truncated.png");
+		try (RandomAccessFile file = new RandomAccessFile(input, "rw")) {
+			file.setLength(file.length() / 2);
+		}
+		File output = directory.resolve("truncated-output.png").toFile();
+		assertThrows(IOException.class, () -> StreamingProcessor.process(input, output,
+				new ImageSettings(Color.Type.RGB, true, false, false, false, false), 16, ExecutionOptions.SERIAL));
+		assertFalse(output.exists());
+	}
+	
+	// Streamed PNGs have no alpha channel, while slope fields are transparent between the arrows
+	private static int[] toRGB(PixelRaster img) {
+		int[] pixels = img.pixels().clone();
+		for (int i = 0; i < pixels.length; i++)
+			pixels[i] &= 0xFFFFFF;
+		return pixels;
+	}
+	
+	private File write(BufferedImage img, String format, String name) throws IOException {
+		File file = directory.resolve(name).toFile();
+		ImageIO.write(img, format, file);
+		return file;
+	}
+	
+}